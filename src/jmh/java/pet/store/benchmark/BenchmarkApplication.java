@@ -0,0 +1,61 @@
+package pet.store.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import pet.store.PetStoreApplication;
+
+/**************************************************************************
+ * Starts the pet store application context, without a web server unless
+ * a benchmark asks for one, against a private in-memory H2 database, so
+ * benchmarks run without MySQL.
+ **************************************************************************/
+final class BenchmarkApplication {
+
+	private BenchmarkApplication() {
+	}
+	
+	/*******************************************************************
+	 * start() boots the context. extraArgs are more --name=value 
+	 * overrides; they win over application.yaml like command-line 
+	 * arguments do.
+	 *******************************************************************/
+	static ConfigurableApplicationContext start(String databaseName, String... extraArgs) {
+		return new SpringApplicationBuilder(PetStoreApplication.class)
+				.web(WebApplicationType.NONE)
+				.run(args(databaseName, extraArgs));
+	}
+	
+	/*******************************************************************
+	 * startServer() boots the context with its embedded Tomcat on a 
+	 * random port (local.server.port in the environment). configuration
+	 * is an extra @Configuration the benchmark adds to the application.
+	 *******************************************************************/
+	static ConfigurableApplicationContext startServer(String databaseName, Class<?> configuration,
+			String... extraArgs) {
+		List<String> args = new ArrayList<>(List.of(extraArgs));
+		args.add("--server.port=0");
+		
+		return new SpringApplicationBuilder(PetStoreApplication.class, configuration)
+				.web(WebApplicationType.SERVLET)
+				.run(args(databaseName, args.toArray(String[]::new)));
+	}
+	
+	/******************************************************************/
+	private static String[] args(String databaseName, String... extraArgs) {
+		List<String> args = new ArrayList<>(List.of(
+				"--spring.datasource.url=jdbc:h2:mem:" + databaseName + ";MODE=MySQL;DB_CLOSE_DELAY=-1",
+				"--spring.datasource.username=sa",
+				"--spring.datasource.password=",
+				"--spring.jpa.show-sql=false",
+				"--spring.sql.init.mode=never",
+				"--logging.level.root=WARN"));
+		args.addAll(List.of(extraArgs));
+		
+		return args.toArray(String[]::new);
+	}
+}
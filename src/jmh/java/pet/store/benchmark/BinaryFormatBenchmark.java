@@ -0,0 +1,93 @@
+package pet.store.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import pet.store.controller.model.PetStoreData;
+import pet.store.entity.Customer;
+import pet.store.entity.PetStore;
+
+/**************************************************************************
+ * Encode and decode time of a PetStoreData with "customers" customers in
+ * each response format, using mappers built like the application's. The
+ * set up prints the payload size of each format.
+ **************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryFormatBenchmark {
+
+	@Param({ "1000", "10000" })
+	private int customers;
+	
+	@Param({ "json", "cbor", "smile" })
+	private String format;
+	
+	private PetStoreData petStoreData;
+	private ObjectMapper mapper;
+	private byte[] encoded;
+	
+	@Setup
+	public void setUp() throws IOException {
+		PetStore petStore = new PetStore();
+		petStore.setPetStoreId(1L);
+		petStore.setPetStoreName("Benchmark Pets");
+		petStore.setPetStoreCity("Springfield");
+		petStore.setPetStoreState("IL");
+		petStore.setPetStoreZip("62701");
+		
+		for(long id = 1; id <= customers; id++) {
+			Customer customer = new Customer();
+			customer.setCustomerId(id);
+			customer.setCustomerFirstName("First" + id);
+			customer.setCustomerLastName("Last" + id);
+			customer.setCustomerEmail("customer" + id + "@example.com");
+			petStore.getCustomers().add(customer);
+		}
+		petStoreData = new PetStoreData(petStore);
+		
+		Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json()
+				.modulesToInstall(new BlackbirdModule());
+		
+		mapper = switch(format) {
+			case "cbor" -> builder.factory(new CBORFactory()).build();
+			case "smile" -> builder.factory(new SmileFactory()).build();
+			default -> builder.build();
+		};
+		
+		encoded = mapper.writeValueAsBytes(petStoreData);
+		System.out.println(format + " payload for " + customers + " customers: " 
+				+ encoded.length + " bytes");
+	}
+	
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return mapper.writeValueAsBytes(petStoreData);
+	}
+	
+	@Benchmark
+	public PetStoreData decode() throws IOException {
+		return mapper.readValue(encoded, PetStoreData.class);
+	}
+}
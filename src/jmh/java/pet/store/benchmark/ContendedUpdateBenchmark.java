@@ -0,0 +1,100 @@
+package pet.store.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pet.store.controller.model.PetStoreData;
+import pet.store.service.PetStoreInclude;
+import pet.store.service.PetStoreService;
+import pet.store.service.VersionMismatchException;
+
+/**************************************************************************
+ * Many threads updating the same petStore. Each increment() reads the
+ * store, adds one to a counter kept in petStoreZip and saves it with the
+ * version it read, starting over on VersionMismatchException (what a
+ * client does on 412). The tear down fails the run if the stored counter
+ * is not the number of successful increments, i.e. if an update was lost.
+ * Throughput is successful increments per second under contention.
+ **************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ContendedUpdateBenchmark {
+
+	private ConfigurableApplicationContext context;
+	private PetStoreService petStoreService;
+	private Long petStoreId;
+	private final AtomicLong increments = new AtomicLong();
+	private final AtomicLong conflicts = new AtomicLong();
+
+	@Setup
+	public void setUp() {
+		context = BenchmarkApplication.start("contended");
+		petStoreService = context.getBean(PetStoreService.class);
+
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreName("Contended Store");
+		petStore.setPetStoreZip("0");
+		petStoreId = petStoreService.savePetStore(petStore).getPetStoreId();
+	}
+
+	@TearDown
+	public void tearDown() {
+		try {
+			long stored = Long.parseLong(context.getBean(JdbcTemplate.class).queryForObject(
+					"SELECT pet_store_zip FROM pet_store WHERE pet_store_id = ?", String.class,
+					petStoreId));
+
+			System.out.println("increments=" + increments + " stored=" + stored
+					+ " conflicts=" + conflicts);
+
+			if(stored != increments.get()) {
+				throw new IllegalStateException("Lost updates: " + increments + " increments but "
+						+ stored + " stored.");
+			}
+		}
+		finally {
+			context.close();
+		}
+	}
+
+	@Benchmark
+	public PetStoreData increment() {
+		while(true) {
+			PetStoreData petStore = petStoreService.retrievePetStoreById(petStoreId,
+					PetStoreInclude.NONE);
+			PetStoreData update = new PetStoreData();
+			update.setPetStoreId(petStoreId);
+			update.setPetStoreName(petStore.getPetStoreName());
+			update.setPetStoreZip(String.valueOf(Long.parseLong(petStore.getPetStoreZip()) + 1));
+
+			try {
+				PetStoreData saved = petStoreService.savePetStore(update, petStore.getVersion());
+				increments.incrementAndGet();
+				return saved;
+			}
+			catch(VersionMismatchException e) {
+				conflicts.incrementAndGet();
+			}
+		}
+	}
+}
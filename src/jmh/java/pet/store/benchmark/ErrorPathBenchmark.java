@@ -0,0 +1,99 @@
+package pet.store.benchmark;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ProblemDetail;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import pet.store.controller.error.GlobalControllerErrorHandler;
+import pet.store.service.ResourceNotFoundException;
+
+/**************************************************************************
+ * Cost of one 404 for a bad ID, from the throw "depth" frames below the
+ * handler to the response body, without JSON serialization (the same for
+ * both). legacyNotFound() is the path as it was: a NoSuchElementException
+ * with a stack trace, ex.toString() and a freshly formatted RFC 1123 
+ * timestamp. notFound() throws ResourceNotFoundException and goes 
+ * through GlobalControllerErrorHandler.
+ *     Log output is off for both; the legacy path also wrote an ERROR 
+ * line per 404, which this leaves out.
+ **************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorPathBenchmark {
+
+	private static final String MESSAGE = "PetStore with ID=42 was NOT found.";
+	
+	/* a servlet request thread is typically 100+ frames deep at the service */
+	@Param({ "10", "120" })
+	private int depth;
+	
+	private GlobalControllerErrorHandler handler;
+	private ServletWebRequest webRequest;
+	
+	@Setup
+	public void setUp() {
+		((Logger)LoggerFactory.getLogger(GlobalControllerErrorHandler.class)).setLevel(Level.OFF);
+		handler = new GlobalControllerErrorHandler(10, 10);
+		webRequest = new ServletWebRequest(
+				new MockHttpServletRequest("GET", "/pet_store/pet_store/42"));
+	}
+	
+	@Benchmark
+	public Map<String, Object> legacyNotFound() {
+		try {
+			return Map.of("depth", throwAt(depth, true));
+		}
+		catch(NoSuchElementException e) {
+			Map<String, Object> body = new LinkedHashMap<>();
+			body.put("message", e.toString());
+			body.put("statusReason", "Not Found");
+			body.put("statusCode", 404);
+			body.put("timestamp", ZonedDateTime.now().format(DateTimeFormatter.RFC_1123_DATE_TIME));
+			body.put("uri", webRequest.getRequest().getRequestURI());
+			return body;
+		}
+	}
+	
+	@Benchmark
+	public ProblemDetail notFound() {
+		try {
+			return ProblemDetail.forStatus(throwAt(depth, false));
+		}
+		catch(NoSuchElementException e) {
+			return handler.handleNoSuchElementException(e, webRequest);
+		}
+	}
+	
+	/******************************************************************/
+	private int throwAt(int frames, boolean legacy) {
+		if(frames > 0) {
+			return throwAt(frames - 1, legacy) + 1;
+		}
+		throw legacy ? new NoSuchElementException(MESSAGE) : new ResourceNotFoundException(MESSAGE);
+	}
+}
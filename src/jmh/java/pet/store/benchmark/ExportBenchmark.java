@@ -0,0 +1,107 @@
+package pet.store.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pet.store.service.ExportFormat;
+import pet.store.service.PetStoreExporter;
+
+/**************************************************************************
+ * Full export of H2 holding "stores" petStores with MEMBERS employees 
+ * and MEMBERS customers each, written to a discarding stream. One call
+ * exports stores * (1 + 2 * MEMBERS) rows; divide by the time per call 
+ * for rows per second.
+ **************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+	private static final int MEMBERS = 50;
+	
+	@Param({ "2000" })
+	private int stores;
+	
+	@Param({ "CSV", "NDJSON" })
+	private ExportFormat format;
+	
+	@Param({ "false", "true" })
+	private boolean gzip;
+	
+	private ConfigurableApplicationContext context;
+	private PetStoreExporter exporter;
+	
+	@Setup
+	public void setUp() {
+		context = BenchmarkApplication.start("export" + stores);
+		exporter = context.getBean(PetStoreExporter.class);
+		JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+		
+		for(int store = 1; store <= stores; store++) {
+			jdbcTemplate.update("INSERT INTO pet_store (pet_store_id, pet_store_name, "
+					+ "pet_store_address, pet_store_city, pet_store_state, pet_store_zip, "
+					+ "pet_store_phone, version) VALUES (?, ?, ?, ?, ?, ?, ?, 0)", store, 
+					"Store " + store, store + " Main Street", "Springfield", "IL", "62701", 
+					"555-0100");
+			
+			List<Object[]> employees = new ArrayList<>(MEMBERS);
+			List<Object[]> customers = new ArrayList<>(MEMBERS);
+			List<Object[]> links = new ArrayList<>(MEMBERS);
+			
+			for(int i = 0; i < MEMBERS; i++) {
+				int id = (store - 1) * MEMBERS + i + 1;
+				employees.add(new Object[] { id, store, "First" + id, "Last" + id, 
+						"555-0101", "Clerk" });
+				customers.add(new Object[] { id, "First" + id, "Last, " + id, 
+						"customer" + id + "@example.com" });
+				links.add(new Object[] { store, id });
+			}
+			jdbcTemplate.batchUpdate("INSERT INTO employee (employee_id, pet_store_id, "
+					+ "employee_first_name, employee_last_name, employee_phone, "
+					+ "employee_job_title, version) VALUES (?, ?, ?, ?, ?, ?, 0)", employees);
+			jdbcTemplate.batchUpdate("INSERT INTO customer (customer_id, customer_first_name, "
+					+ "customer_last_name, customer_email, version) VALUES (?, ?, ?, ?, 0)", customers);
+			jdbcTemplate.batchUpdate("INSERT INTO pet_store_customer (pet_store_id, customer_id) "
+					+ "VALUES (?, ?)", links);
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+	
+	@Benchmark
+	public long export() throws IOException {
+		if(!gzip) {
+			return exporter.export(format, OutputStream.nullOutputStream());
+		}
+		
+		GZIPOutputStream gzipStream = new GZIPOutputStream(OutputStream.nullOutputStream(), 64 * 1024);
+		long rows = exporter.export(format, gzipStream);
+		gzipStream.finish();
+		return rows;
+	}
+}
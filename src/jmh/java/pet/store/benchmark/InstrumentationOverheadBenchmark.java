@@ -0,0 +1,85 @@
+package pet.store.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import pet.store.metrics.SqlRequestMetrics;
+
+/**************************************************************************
+ * Per-call cost of the instrumentation added around the service and 
+ * Hibernate: the @Timed aspect on a proxied call (compared with a plain
+ * call and with a proxy without the aspect) and the SQL statement 
+ * counter Hibernate calls for every statement.
+ **************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstrumentationOverheadBenchmark {
+
+	public static class Target {
+		@Timed("benchmark.target")
+		public int work(int value) {
+			return value + 1;
+		}
+	}
+	
+	private Target plain;
+	private Target proxied;
+	private Target timed;
+	private SqlRequestMetrics sqlRequestMetrics;
+	private int value;
+	
+	@Setup
+	public void setUp() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		plain = new Target();
+		
+		AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new Target());
+		proxyFactory.setProxyTargetClass(true);
+		proxied = proxyFactory.getProxy();
+		
+		AspectJProxyFactory timedFactory = new AspectJProxyFactory(new Target());
+		timedFactory.setProxyTargetClass(true);
+		timedFactory.addAspect(new TimedAspect(registry));
+		timed = timedFactory.getProxy();
+		
+		sqlRequestMetrics = new SqlRequestMetrics(registry);
+	}
+	
+	@Benchmark
+	public int plainCall() {
+		return plain.work(value++);
+	}
+	
+	@Benchmark
+	public int proxiedCall() {
+		return proxied.work(value++);
+	}
+	
+	@Benchmark
+	public int timedCall() {
+		return timed.work(value++);
+	}
+	
+	@Benchmark
+	public String inspectStatement() {
+		return sqlRequestMetrics.inspect("select 1");
+	}
+}
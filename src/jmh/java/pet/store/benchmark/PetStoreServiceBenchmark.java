@@ -0,0 +1,118 @@
+package pet.store.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pet.store.controller.model.KeysetPage;
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreCustomer;
+import pet.store.service.PetStoreService;
+
+/**************************************************************************
+ * PetStoreService read paths against H2 holding "rows" pet stores. One
+ * customer shops at every store, so saveExistingCustomer() measures the
+ * membership check in findCustomerById() at its worst.
+ **************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PetStoreServiceBenchmark {
+
+	private static final int PAGE_SIZE = 500;
+	private static final int INSERT_BATCH = 1000;
+	
+	@Param({ "1000", "10000", "100000" })
+	private int rows;
+	
+	private ConfigurableApplicationContext context;
+	private PetStoreService petStoreService;
+	private Long firstPetStoreId;
+	private PetStoreCustomer customer;
+	
+	@Setup
+	public void setUp() {
+		context = BenchmarkApplication.start("service" + rows);
+		petStoreService = context.getBean(PetStoreService.class);
+		JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+		
+		for(int start = 0; start < rows; start += INSERT_BATCH) {
+			List<Object[]> batch = new ArrayList<>(INSERT_BATCH);
+			
+			for(int i = start; i < Math.min(start + INSERT_BATCH, rows); i++) {
+				batch.add(new Object[] { "Store " + i, i + " Main Street", "Springfield", "IL", 
+						"62701", "555-0100" });
+			}
+			jdbcTemplate.batchUpdate("INSERT INTO pet_store (pet_store_name, pet_store_address, "
+					+ "pet_store_city, pet_store_state, pet_store_zip, pet_store_phone, version) "
+					+ "VALUES (?, ?, ?, ?, ?, ?, 0)", batch);
+		}
+		
+		firstPetStoreId = jdbcTemplate.queryForObject("SELECT MIN(pet_store_id) FROM pet_store", 
+				Long.class);
+		
+		PetStoreCustomer newCustomer = new PetStoreCustomer();
+		newCustomer.setCustomerFirstName("Loyal");
+		newCustomer.setCustomerLastName("Customer");
+		newCustomer.setCustomerEmail("loyal@example.com");
+		customer = petStoreService.saveCustomer(firstPetStoreId, newCustomer);
+		
+		jdbcTemplate.update("INSERT INTO pet_store_customer (pet_store_id, customer_id) "
+				+ "SELECT pet_store_id, ? FROM pet_store WHERE pet_store_id <> ?", 
+				customer.getCustomerId(), firstPetStoreId);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+	
+	@Benchmark
+	public KeysetPage<PetStoreData> firstPage() {
+		return petStoreService.retrieveAllPetStores(null, PAGE_SIZE);
+	}
+	
+	@Benchmark
+	public int allPages() {
+		int count = 0;
+		String cursor = null;
+		
+		do {
+			KeysetPage<PetStoreData> page = petStoreService.retrieveAllPetStores(cursor, PAGE_SIZE);
+			count += page.getItems().size();
+			cursor = page.getNextCursor();
+		} while(Objects.nonNull(cursor));
+		
+		return count;
+	}
+	
+	@Benchmark
+	public void streamAll(Blackhole blackhole) {
+		petStoreService.streamAllPetStores(blackhole::consume);
+	}
+	
+	@Benchmark
+	public PetStoreCustomer saveExistingCustomer() {
+		return petStoreService.saveCustomer(firstPetStoreId, customer);
+	}
+}
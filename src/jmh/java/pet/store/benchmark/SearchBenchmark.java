@@ -0,0 +1,92 @@
+package pet.store.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pet.store.controller.model.PetStoreData.PetStoreCustomer;
+import pet.store.service.PetStoreService;
+
+/**************************************************************************
+ * Prefix search latency of PetStoreService against H2 holding 
+ * "customers" customers. Each call looks up a random prefix, so the 
+ * query cache and the index's hot pages do not flatter the result.
+ **************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+	private static final int INSERT_BATCH = 1000;
+	private static final int LIMIT = 10;
+	
+	@Param({ "100000" })
+	private int customers;
+	
+	private ConfigurableApplicationContext context;
+	private PetStoreService petStoreService;
+	
+	@Setup
+	public void setUp() {
+		context = BenchmarkApplication.start("search" + customers);
+		petStoreService = context.getBean(PetStoreService.class);
+		JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+		
+		for(int start = 0; start < customers; start += INSERT_BATCH) {
+			List<Object[]> batch = new ArrayList<>(INSERT_BATCH);
+			
+			for(int i = start; i < Math.min(start + INSERT_BATCH, customers); i++) {
+				batch.add(new Object[] { i + 1, "First" + i, lastName(i), 
+						"customer" + i + "@example.com" });
+			}
+			jdbcTemplate.batchUpdate("INSERT INTO customer (customer_id, customer_first_name, "
+					+ "customer_last_name, customer_email, version) VALUES (?, ?, ?, ?, 0)", batch);
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+	
+	@Benchmark
+	public List<PetStoreCustomer> searchByEmail() {
+		int i = ThreadLocalRandom.current().nextInt(customers);
+		return petStoreService.searchCustomers("customer" + i, null, LIMIT);
+	}
+	
+	@Benchmark
+	public List<PetStoreCustomer> searchByLastName() {
+		int i = ThreadLocalRandom.current().nextInt(customers);
+		return petStoreService.searchCustomers(null, lastName(i).substring(0, 3), LIMIT);
+	}
+	
+	/* Spread-out last names, so a 3 letter prefix matches a few hundred rows. */
+	private static String lastName(int i) {
+		StringBuilder name = new StringBuilder();
+		
+		for(int n = i * 7919 % 456976; name.length() < 4; n /= 26) {
+			name.append((char)('a' + n % 26));
+		}
+		return name.toString();
+	}
+}
@@ -0,0 +1,171 @@
+package pet.store.benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreEmployee;
+import pet.store.service.PetStoreService;
+
+/**************************************************************************
+ * Requests per second and latency percentiles (the SampleTime run
+ * reports p0.99) of GET /pet_store/search?type=employee over HTTP, with
+ * Tomcat on platform threads against virtual threads plus the
+ * connection limiter. In-memory H2 answers in microseconds, so every
+ * connection is held latencyMs longer before it goes back to the pool,
+ * the way a round trip to MySQL holds it.
+ *     With poolSize 10 both thread models wait on the pool and should
+ * come out alike. With poolSize 300 the pool is no longer the limit,
+ * and the 200 Tomcat platform threads are; run with more client
+ * threads than that (-t 400) to see virtual threads pull ahead.
+ **************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Threads(256)
+@Fork(1)
+public class ThreadModelBenchmark {
+
+	private static final int EMPLOYEES = 20;
+
+	@Param({ "platform", "virtual" })
+	private String threads;
+
+	@Param({ "10", "300" })
+	private int poolSize;
+
+	@Param({ "5" })
+	private int latencyMs;
+
+	private ConfigurableApplicationContext context;
+	private HttpClient client;
+	private HttpRequest request;
+
+	@Setup
+	public void setUp() {
+		boolean virtual = "virtual".equals(threads);
+
+		context = BenchmarkApplication.startServer("thread_model", LatencyConfig.class,
+				"--spring.threads.virtual.enabled=" + virtual,
+				"--pet-store.datasource.limiter.enabled=" + virtual,
+				"--spring.datasource.hikari.maximum-pool-size=" + poolSize,
+				"--benchmark.latency-ms=" + latencyMs);
+
+		PetStoreService petStoreService = context.getBean(PetStoreService.class);
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreName("Load Store");
+		Long petStoreId = petStoreService.savePetStore(petStore).getPetStoreId();
+		List<PetStoreEmployee> employees = new ArrayList<>();
+
+		for(int employee = 1; employee <= EMPLOYEES; employee++) {
+			PetStoreEmployee petStoreEmployee = new PetStoreEmployee();
+			petStoreEmployee.setEmployeeFirstName("First" + employee);
+			petStoreEmployee.setEmployeeLastName("Load" + employee);
+			employees.add(petStoreEmployee);
+		}
+		petStoreService.saveEmployees(petStoreId, employees);
+
+		String port = context.getEnvironment().getProperty("local.server.port");
+		client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		request = HttpRequest.newBuilder(URI.create("http://localhost:" + port
+				+ "/pet_store/pet_store/search?type=employee&lastName=Load&limit=10")).GET().build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.close();
+		context.close();
+	}
+
+	@Benchmark
+	public String search() throws Exception {
+		HttpResponse<String> response = client.send(request, BodyHandlers.ofString());
+
+		if(response.statusCode() != 200) {
+			throw new IllegalStateException("Search answered " + response.statusCode() + ": "
+					+ response.body());
+		}
+		return response.body();
+	}
+
+	/*******************************************************************
+	 * Wraps the DataSource so that closing a connection first sleeps
+	 * benchmark.latency-ms. The pool slot (and a limiter permit) stays
+	 * taken for that time, as it would during a real database call.
+	 * Not a @Configuration, so component scanning of pet.store leaves it
+	 * out of the other benchmarks; startServer() adds it as a source.
+	 *******************************************************************/
+	static class LatencyConfig {
+
+		@Bean
+		static BeanPostProcessor latencyDataSourcePostProcessor(Environment environment) {
+			long latencyMs = environment.getProperty("benchmark.latency-ms", Long.class, 0L);
+
+			return new BeanPostProcessor() {
+				@Override
+				public Object postProcessAfterInitialization(Object bean, String beanName) {
+					if(!(bean instanceof DataSource dataSource)) {
+						return bean;
+					}
+
+					return new DelegatingDataSource(dataSource) {
+						@Override
+						public Connection getConnection() throws SQLException {
+							return slowClose(super.getConnection(), latencyMs);
+						}
+					};
+				}
+			};
+		}
+
+		/******************************************************************/
+		private static Connection slowClose(Connection connection, long latencyMs) {
+			return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+						if("close".equals(method.getName())) {
+							Thread.sleep(latencyMs);
+						}
+
+						try {
+							return method.invoke(connection, args);
+						}
+						catch(InvocationTargetException e) {
+							throw e.getCause();
+						}
+					});
+		}
+	}
+}
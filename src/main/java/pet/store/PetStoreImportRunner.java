@@ -0,0 +1,101 @@
+package pet.store;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import pet.store.controller.model.ImportReport;
+import pet.store.controller.model.PetStoreBatchResult.RowFailure;
+import pet.store.service.ExportFormat;
+import pet.store.service.PetStoreImporter;
+
+/**************************************************************************
+ * Command-line import mode: with --pet-store.import.file=<path> the
+ * application imports that file (.csv or .ndjson, optionally .gz) and 
+ * exits, 0 when every record was read and 1 otherwise. Add 
+ * --spring.main.web-application-type=none to skip the web server.
+ * 
+ * Progress is checkpointed in <path>.checkpoint after every commit. A
+ * rerun after a failure resumes behind the checkpoint; the file is 
+ * deleted once the import completes.
+ **************************************************************************/
+@Slf4j
+@Component
+@ConditionalOnProperty("pet-store.import.file")
+public class PetStoreImportRunner implements CommandLineRunner {
+
+	@Autowired
+	private PetStoreImporter petStoreImporter;
+	
+	@Autowired
+	private ConfigurableApplicationContext context;
+	
+	@Value("${pet-store.import.file}")
+	private Path file;
+	
+	@Override
+	public void run(String... args) throws IOException {
+		Path checkpointFile = file.resolveSibling(file.getFileName() + ".checkpoint");
+		long resumeAfter = Files.exists(checkpointFile) 
+				? Long.parseLong(Files.readString(checkpointFile).trim()) : 0;
+		
+		log.info("Importing {}{}.", file, resumeAfter > 0 ? " after record " + resumeAfter : "");
+		ImportReport report;
+		
+		try(InputStream inputStream = open(file)) {
+			report = petStoreImporter.importRecords(inputStream, 
+					ExportFormat.fromFileName(file.getFileName().toString()), resumeAfter, 
+					record -> writeCheckpoint(checkpointFile, record));
+		}
+		
+		if(report.isCompleted()) {
+			Files.deleteIfExists(checkpointFile);
+		}
+		else {
+			log.error("Import of {} failed: {}. Run again to resume after record {}.", 
+					file, report.getMessage(), report.getCheckpoint());
+		}
+		
+		for(RowFailure failure : report.getFailures()) {
+			log.warn("Record {} was rejected: {}", failure.getIndex(), failure.getMessage());
+		}
+		
+		int exitCode = report.isCompleted() ? 0 : 1;
+		System.exit(SpringApplication.exit(context, () -> exitCode));
+	}
+	
+	/******************************************************************/
+	private static InputStream open(Path file) throws IOException {
+		InputStream inputStream = new BufferedInputStream(Files.newInputStream(file), 64 * 1024);
+		return file.getFileName().toString().endsWith(".gz") 
+				? new GZIPInputStream(inputStream, 64 * 1024) : inputStream;
+	}
+	
+	/* Written to a temporary file and moved over, so a crash never leaves half a number. */
+	private static void writeCheckpoint(Path checkpointFile, long record) {
+		try {
+			Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+			Files.writeString(temporary, Long.toString(record), StandardCharsets.UTF_8);
+			Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, 
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
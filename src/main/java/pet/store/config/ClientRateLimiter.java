@@ -0,0 +1,88 @@
+package pet.store.config;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**************************************************************************
+ * Token buckets per client and endpoint. Each bucket is a single 
+ * AtomicLong updated with compare-and-set (the generic cell rate 
+ * algorithm), so a request takes no lock. The buckets live in a Caffeine
+ * map, whose striped hash table keeps clients from contending with each 
+ * other; a bucket idle for idle-timeout is dropped, which is the same as
+ * a full bucket.
+ * 
+ * limits maps an endpoint name to its limit. Endpoints without an entry
+ * use the "default" limit.
+ **************************************************************************/
+public class ClientRateLimiter {
+
+	static final String DEFAULT_ENDPOINT = "default";
+	
+	/* permitsPerSecond sustained, up to burst at once after being idle. */
+	public record Limit(double permitsPerSecond, int burst) {}
+	
+	private record Key(String client, String endpoint) {}
+	
+	private final Map<String, Limit> limits;
+	private final Cache<Key, TokenBucket> buckets;
+	
+	public ClientRateLimiter(Map<String, Limit> limits, Duration idleTimeout) {
+		if(!limits.containsKey(DEFAULT_ENDPOINT)) {
+			throw new IllegalStateException("A \"default\" rate limit is required.");
+		}
+		this.limits = Map.copyOf(limits);
+		buckets = Caffeine.newBuilder()
+				.expireAfterAccess(idleTimeout)
+				.build();
+	}
+	
+	/*******************************************************************
+	 * tryAcquire() takes one token from the client's bucket for the 
+	 * endpoint. It returns 0 when the request may go ahead, otherwise 
+	 * the nanoseconds until a token is available.
+	 *******************************************************************/
+	public long tryAcquire(String client, String endpoint) {
+		String name = limits.containsKey(endpoint) ? endpoint : DEFAULT_ENDPOINT;
+		TokenBucket bucket = buckets.get(new Key(client, name), 
+				key -> new TokenBucket(limits.get(name)));
+		return bucket.tryAcquire(System.nanoTime());
+	}
+	
+	/*******************************************************************
+	 * A bucket as a theoretical arrival time (TAT): the time at which
+	 * the bucket would be full again. Each permit moves it one interval
+	 * ahead; a request is refused when that would put it more than 
+	 * burst intervals past now.
+	 *******************************************************************/
+	static final class TokenBucket {
+		
+		private final long intervalNanos;
+		private final long burstNanos;
+		private final AtomicLong theoreticalArrival;
+		
+		TokenBucket(Limit limit) {
+			intervalNanos = (long)(1_000_000_000L / limit.permitsPerSecond());
+			burstNanos = intervalNanos * limit.burst();
+			theoreticalArrival = new AtomicLong(System.nanoTime());
+		}
+		
+		long tryAcquire(long now) {
+			while(true) {
+				long arrival = theoreticalArrival.get();
+				long next = Math.max(arrival, now) + intervalNanos;
+				long ahead = next - now;
+				
+				if(ahead > burstNanos) {
+					return ahead - burstNanos;
+				}
+				if(theoreticalArrival.compareAndSet(arrival, next)) {
+					return 0;
+				}
+			}
+		}
+	}
+}
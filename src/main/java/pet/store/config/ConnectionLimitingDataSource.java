@@ -0,0 +1,121 @@
+package pet.store.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**************************************************************************
+ * Puts a fair semaphore in front of the connection pool. With virtual
+ * threads any number of requests can reach the database layer at once.
+ * Requests queue here in FIFO order instead of piling onto Hikari's
+ * pool. The permit is held until the connection is closed (returned to
+ * the pool).
+ *     One instance guards one pool. With read replicas each pool has its
+ * own (see DataSourceLimiterConfig), and the meters are tagged with the
+ * pool's name.
+ **************************************************************************/
+public class ConnectionLimitingDataSource extends DelegatingDataSource {
+
+	@FunctionalInterface
+	private interface ConnectionSupplier {
+		Connection get() throws SQLException;
+	}
+	
+	private final Semaphore permits;
+	private final Duration acquireTimeout;
+	private final Timer waitTimer;
+	
+	public ConnectionLimitingDataSource(DataSource targetDataSource, String poolName, 
+			int maxConcurrency, Duration acquireTimeout, MeterRegistry registry) {
+		super(targetDataSource);
+		this.permits = new Semaphore(maxConcurrency, true);
+		this.acquireTimeout = acquireTimeout;
+		
+		waitTimer = Timer.builder("pet.store.datasource.limiter.wait")
+				.description("Time spent waiting for a database permit")
+				.tag("pool", poolName)
+				.register(registry);
+		Gauge.builder("pet.store.datasource.limiter.waiting", permits, Semaphore::getQueueLength)
+				.description("Threads currently waiting for a database permit")
+				.tag("pool", poolName)
+				.register(registry);
+		Gauge.builder("pet.store.datasource.limiter.available", permits, Semaphore::availablePermits)
+				.tag("pool", poolName)
+				.register(registry);
+	}
+	
+	@Override
+	public Connection getConnection() throws SQLException {
+		return limit(super::getConnection);
+	}
+	
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return limit(() -> super.getConnection(username, password));
+	}
+	
+	/******************************************************************/
+	private Connection limit(ConnectionSupplier supplier) throws SQLException {
+		long start = System.nanoTime();
+		boolean acquired;
+		
+		try {
+			acquired = permits.tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLTransientConnectionException("Interrupted while waiting for a database permit.", e);
+		}
+		finally {
+			waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		
+		if(!acquired) {
+			throw new SQLTransientConnectionException(
+					"No database permit was available within " + acquireTimeout + ".");
+		}
+		
+		try {
+			return releasingOnClose(supplier.get());
+		}
+		catch(SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+	
+	/*******************************************************************
+	 * releasingOnClose() wraps the connection so the first close() gives
+	 * the permit back. Every other call goes straight to the connection.
+	 *******************************************************************/
+	private Connection releasingOnClose(Connection connection) {
+		AtomicBoolean released = new AtomicBoolean();
+		
+		return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+					if(method.getName().equals("close") && released.compareAndSet(false, true)) {
+						permits.release();
+					}
+					try {
+						return method.invoke(connection, args);
+					}
+					catch(InvocationTargetException e) {
+						throw e.getTargetException();
+					}
+				});
+	}
+}
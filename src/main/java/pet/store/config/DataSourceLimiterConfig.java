@@ -0,0 +1,79 @@
+package pet.store.config;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**************************************************************************
+ * Puts a ConnectionLimitingDataSource in front of each connection pool
+ * when pet-store.datasource.limiter.enabled is true. Every pool gets its
+ * own semaphore, whose permits default to that pool's maximum size
+ * (pet-store.datasource.limiter.permits overrides it for all pools).
+ *     Without read replicas the application DataSource is the one pool
+ * and is wrapped here. With replicas, ReadReplicaConfig wraps the
+ * primary and each replica pool through limit() before routing between
+ * them: reads queued for a busy replica then never take the permits
+ * that writes need, and the replicas are not held to the primary's size.
+ **************************************************************************/
+@Configuration
+@ConditionalOnProperty(name = "pet-store.datasource.limiter.enabled", havingValue = "true")
+public class DataSourceLimiterConfig {
+
+	static final String ENABLED = "pet-store.datasource.limiter.enabled";
+
+	@Bean
+	static BeanPostProcessor connectionLimitingDataSourcePostProcessor(Environment environment,
+			ObjectProvider<MeterRegistry> registry) {
+
+		boolean replicas = environment.getProperty("pet-store.datasource.replicas.enabled",
+				Boolean.class, false);
+
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if(replicas || !(bean instanceof DataSource dataSource)
+						|| bean instanceof ConnectionLimitingDataSource) {
+					return bean;
+				}
+
+				return limit(dataSource, "primary", environment, registry.getObject());
+			}
+		};
+	}
+
+	/*******************************************************************
+	 * limit() wraps one pool in its own ConnectionLimitingDataSource, or
+	 * returns it as it is when the limiter is off.
+	 *******************************************************************/
+	static DataSource limit(DataSource pool, String poolName, Environment environment,
+			MeterRegistry registry) {
+
+		if(!environment.getProperty(ENABLED, Boolean.class, false)) {
+			return pool;
+		}
+
+		// Hikari reports -1 until the pool starts when the size was left at its default of 10
+		int poolSize = pool instanceof HikariDataSource hikari && hikari.getMaximumPoolSize() > 0
+				? hikari.getMaximumPoolSize()
+				: environment.getProperty("spring.datasource.hikari.maximum-pool-size",
+						Integer.class, 10);
+		int permits = environment.getProperty(
+				"pet-store.datasource.limiter.permits", Integer.class, poolSize);
+		Duration acquireTimeout = environment.getProperty(
+				"pet-store.datasource.limiter.acquire-timeout", Duration.class,
+				Duration.ofSeconds(30));
+
+		return new ConnectionLimitingDataSource(pool, poolName, permits, acquireTimeout, registry);
+	}
+}
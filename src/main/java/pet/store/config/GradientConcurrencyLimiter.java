@@ -0,0 +1,107 @@
+package pet.store.config;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**************************************************************************
+ * Adaptive limit on requests in flight, after the gradient algorithm of
+ * Netflix's concurrency-limits. Every completed request reports its 
+ * latency. A slow moving average of latency stands for the service when
+ * healthy. When recent latency rises well above it (the database is 
+ * queueing) the limit shrinks in proportion; while latency stays flat 
+ * it grows by about sqrt(limit). Requests over the limit are refused, 
+ * rather than waiting for a connection that will not come in time.
+ * 
+ * Admission is a single atomic increment. The limit update after each
+ * request is synchronized, but it is a few arithmetic operations.
+ **************************************************************************/
+public class GradientConcurrencyLimiter {
+
+	/* weight of one sample in the short and long latency averages */
+	private static final double SHORT_WEIGHT = 0.5;
+	private static final double LONG_WEIGHT = 0.01;
+	
+	/* recent latency may be this many times the baseline before the limit shrinks */
+	private static final double TOLERANCE = 1.5;
+	
+	private final int minLimit;
+	private final int maxLimit;
+	private final double smoothing;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	private volatile double limit;
+	private double shortLatency;
+	private double longLatency;
+	
+	public GradientConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, 
+			double smoothing, MeterRegistry registry) {
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.smoothing = smoothing;
+		
+		Gauge.builder("pet.store.concurrency.limit", this, limiter -> limiter.limit)
+				.description("Current adaptive limit on requests in flight")
+				.register(registry);
+		Gauge.builder("pet.store.concurrency.in.flight", inFlight, AtomicInteger::get)
+				.register(registry);
+	}
+	
+	/*******************************************************************
+	 * tryAcquire() admits a request if fewer than limit are in flight.
+	 * Every admitted request must be followed by release().
+	 *******************************************************************/
+	public boolean tryAcquire() {
+		if(inFlight.incrementAndGet() > (int)limit) {
+			inFlight.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+	
+	/*******************************************************************
+	 * release() ends an admitted request. A negative latency (a 
+	 * request that did not run to completion, such as a streamed 
+	 * response) leaves the limit alone.
+	 *******************************************************************/
+	public void release(long latencyNanos) {
+		int requests = inFlight.getAndDecrement();
+		
+		if(latencyNanos >= 0) {
+			update(latencyNanos, requests);
+		}
+	}
+	
+	/******************************************************************/
+	private synchronized void update(long latencyNanos, int requests) {
+		if(longLatency == 0) {
+			shortLatency = longLatency = latencyNanos;
+			return;
+		}
+		
+		shortLatency += (latencyNanos - shortLatency) * SHORT_WEIGHT;
+		longLatency += (latencyNanos - longLatency) * LONG_WEIGHT;
+		
+		// a lightly used limit says nothing about what the service can take
+		if(requests < limit / 2) {
+			return;
+		}
+		
+		// after a slow period, let the baseline come back down quickly
+		if(longLatency > 2 * shortLatency) {
+			longLatency *= 0.95;
+		}
+		
+		double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+		double target = limit * gradient + Math.sqrt(limit);
+		double next = limit * (1 - smoothing) + target * smoothing;
+		
+		limit = Math.max(minLimit, Math.min(maxLimit, next));
+	}
+	
+	public int getLimit() {
+		return (int)limit;
+	}
+}
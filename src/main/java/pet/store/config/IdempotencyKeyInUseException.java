@@ -0,0 +1,14 @@
+package pet.store.config;
+
+/**************************************************************************
+ * A request came in with the Idempotency-Key of a request that has not
+ * finished yet. The controller error handler turns it into 409 Conflict.
+ **************************************************************************/
+public class IdempotencyKeyInUseException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public IdempotencyKeyInUseException(String message) {
+		super(message);
+	}
+}
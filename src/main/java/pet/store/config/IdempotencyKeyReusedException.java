@@ -0,0 +1,14 @@
+package pet.store.config;
+
+/**************************************************************************
+ * An Idempotency-Key was sent again with a different request. The 
+ * controller error handler turns it into 422 Unprocessable Entity.
+ **************************************************************************/
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public IdempotencyKeyReusedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,116 @@
+package pet.store.config;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**************************************************************************
+ * Responses of POSTs sent with an Idempotency-Key header, so a client 
+ * that retries after a timeout gets the first response back instead of
+ * creating the row again. The store is bounded: at most max-keys keys,
+ * each kept for retention.
+ * 
+ * The first request with a key runs; while it does, the same key gets
+ * IdempotencyKeyInUseException (409). Once it succeeded, the same key 
+ * with the same request replays its response with Idempotent-Replayed: 
+ * true, and with a different request gives IdempotencyKeyReusedException
+ * (422). A request that fails keeps nothing, so it can be retried.
+ **************************************************************************/
+@Component
+public class IdempotencyKeyStore {
+
+	public static final String HEADER = "Idempotency-Key";
+	public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+	
+	private static final int MAX_KEY_LENGTH = 255;
+	
+	/* response is null while the first request is running. */
+	private record Entry(Object request, ResponseEntity<?> response) {}
+	
+	private final Cache<String, Entry> entries;
+	private final Counter replays;
+	
+	public IdempotencyKeyStore(
+			@Value("${pet-store.idempotency.max-keys:100000}") long maxKeys,
+			@Value("${pet-store.idempotency.retention:24h}") Duration retention,
+			MeterRegistry registry) {
+		entries = Caffeine.newBuilder()
+				.maximumSize(maxKeys)
+				.expireAfterWrite(retention)
+				.build();
+		replays = Counter.builder("pet.store.idempotency.replays")
+				.description("Responses replayed for a repeated Idempotency-Key")
+				.register(registry);
+	}
+	
+	/*******************************************************************
+	 * execute() runs action once per key. request identifies what the
+	 * key was used for (compared with equals()); a null key just runs
+	 * action.
+	 *******************************************************************/
+	public ResponseEntity<?> execute(String key, Object request, 
+			Supplier<? extends ResponseEntity<?>> action) {
+		if(Objects.isNull(key)) {
+			return action.get();
+		}
+		if(key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+			throw new IllegalArgumentException(
+					HEADER + " must have 1 to " + MAX_KEY_LENGTH + " characters.");
+		}
+		
+		Entry running = new Entry(request, null);
+		Entry previous = entries.asMap().putIfAbsent(key, running);
+		
+		if(Objects.nonNull(previous)) {
+			return replay(key, request, previous);
+		}
+		
+		ResponseEntity<?> response;
+		
+		try {
+			response = action.get();
+		}
+		catch(RuntimeException | Error e) {
+			entries.asMap().remove(key, running);
+			throw e;
+		}
+		
+		if(response.getStatusCode().isError()) {
+			entries.asMap().remove(key, running);
+		}
+		else {
+			entries.asMap().replace(key, running, new Entry(request, response));
+		}
+		return response;
+	}
+	
+	/******************************************************************/
+	private ResponseEntity<?> replay(String key, Object request, Entry previous) {
+		if(!previous.request().equals(request)) {
+			throw new IdempotencyKeyReusedException(
+					HEADER + " " + key + " was already used for a different request.");
+		}
+		if(Objects.isNull(previous.response())) {
+			throw new IdempotencyKeyInUseException(
+					"The request with " + HEADER + " " + key + " is still being processed.");
+		}
+		
+		replays.increment();
+		ResponseEntity<?> response = previous.response();
+		
+		return ResponseEntity.status(response.getStatusCode())
+				.headers(response.getHeaders())
+				.header(REPLAYED_HEADER, "true")
+				.body(response.getBody());
+	}
+}
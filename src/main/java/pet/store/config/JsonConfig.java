@@ -0,0 +1,67 @@
+package pet.store.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+/**************************************************************************
+ * Tuning of the ObjectMapper behind every JSON response. Blackbird 
+ * swaps the reflective getter and setter calls of bean (de)serialization
+ * for LambdaMetafactory-generated accessors; the wire format does not
+ * change. Spring Boot registers every Module bean with the ObjectMapper.
+ *
+ * The same DTOs are also served as CBOR (Accept: application/cbor) and
+ * Smile (Accept: application/x-jackson-smile). Those converters come 
+ * after JSON, so JSON stays the default for browsers and wildcard Accept
+ * headers.
+ **************************************************************************/
+@Configuration
+public class JsonConfig {
+
+	@Bean
+	BlackbirdModule blackbirdModule() {
+		return new BlackbirdModule();
+	}
+	
+	/*
+	 * Jackson keeps its read and write buffers in a ThreadLocal pool by
+	 * default. Virtual threads are not reused, so every response would
+	 * allocate fresh buffers; a shared pool lets them be recycled.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+	Jackson2ObjectMapperBuilderCustomizer sharedBufferPoolCustomizer() {
+		return builder -> builder.factory(JsonFactory.builder()
+				.recyclerPool(JsonRecyclerPools.sharedLockFreePool())
+				.build());
+	}
+	
+	/*
+	 * The binary mappers are built from Boot's Jackson2ObjectMapperBuilder
+	 * so they get the same modules and settings as the JSON one. Spring
+	 * Boot puts these beans where its own CBOR and Smile converters are.
+	 */
+	@Bean
+	MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(
+			Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2CborHttpMessageConverter(
+				builder.factory(new CBORFactory()).build());
+	}
+	
+	@Bean
+	MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(
+			Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2SmileHttpMessageConverter(
+				builder.factory(new SmileFactory()).build());
+	}
+}
@@ -0,0 +1,23 @@
+package pet.store.config;
+
+import java.time.Duration;
+
+/**************************************************************************
+ * A client used up its token bucket for an endpoint. The controller
+ * error handler turns it into 429 Too Many Requests with Retry-After.
+ **************************************************************************/
+public class RateLimitExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final Duration retryAfter;
+
+	public RateLimitExceededException(String message, Duration retryAfter) {
+		super(message);
+		this.retryAfter = retryAfter;
+	}
+	
+	public Duration getRetryAfter() {
+		return retryAfter;
+	}
+}
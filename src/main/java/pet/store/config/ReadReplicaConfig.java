@@ -0,0 +1,112 @@
+package pet.store.config;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**************************************************************************
+ * Read replica routing, on when pet-store.datasource.replicas.enabled is
+ * true. The application DataSource is a LazyConnectionDataSourceProxy 
+ * over the primary pool. A connection that is read-only when first used
+ * (a readOnly = true transaction) comes from ReplicaRoutingDataSource;
+ * everything else from the primary.
+ *     Only the proxy is a bean, so Boot's own DataSource is not created.
+ * With the connection limiter on, each pool is limited on its own
+ * (DataSourceLimiterConfig.limit()) before it is routed to.
+ **************************************************************************/
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "pet-store.datasource.replicas.enabled", havingValue = "true")
+public class ReadReplicaConfig {
+
+	private ReplicaRoutingDataSource replicaRoutingDataSource;
+	
+	@Bean
+	public DataSource dataSource(DataSourceProperties properties, Environment environment,
+			MeterRegistry registry,
+			@Value("${pet-store.datasource.replicas.validation-timeout:2s}") Duration validationTimeout) {
+		
+		List<String> urls = Binder.get(environment)
+				.bind("pet-store.datasource.replicas.urls", Bindable.listOf(String.class))
+				.orElse(List.of());
+		
+		if(urls.isEmpty()) {
+			throw new IllegalStateException(
+					"pet-store.datasource.replicas.enabled is true but no replica urls are set.");
+		}
+		
+		DataSource primary = DataSourceLimiterConfig.limit(createPool(properties, 
+				properties.determineUrl(), "primary", environment, registry), "primary", 
+				environment, registry);
+		Map<String, DataSource> replicas = new LinkedHashMap<>();
+		
+		for(int i = 0; i < urls.size(); i++) {
+			HikariDataSource replica = createPool(properties, urls.get(i), "replica-" + i, 
+					environment, registry);
+			replica.setReadOnly(true);
+			replicas.put(replica.getPoolName(), DataSourceLimiterConfig.limit(replica, 
+					replica.getPoolName(), environment, registry));
+		}
+		
+		replicaRoutingDataSource = new ReplicaRoutingDataSource(primary, replicas, 
+				(int)validationTimeout.toSeconds(), registry);
+		replicaRoutingDataSource.afterPropertiesSet();
+		
+		LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primary);
+		dataSource.setReadOnlyDataSource(replicaRoutingDataSource);
+		return dataSource;
+	}
+	
+	/*******************************************************************
+	 * Replicas that fail validation leave the read rotation; they come
+	 * back once they pass again.
+	 *******************************************************************/
+	@Scheduled(fixedDelayString = "${pet-store.datasource.replicas.health-check-interval:5s}")
+	public void checkReplicaHealth() {
+		replicaRoutingDataSource.checkHealth();
+	}
+	
+	/* A zero window sets no cookie, which turns stickiness off. */
+	@Bean
+	public ReadYourWritesFilter readYourWritesFilter(
+			@Value("${pet-store.datasource.replicas.read-your-writes:5s}") Duration window) {
+		return new ReadYourWritesFilter(window);
+	}
+	
+	/*******************************************************************
+	 * createPool() builds a Hikari pool with the spring.datasource 
+	 * driver, username, password and hikari settings, for the given URL.
+	 *******************************************************************/
+	private static HikariDataSource createPool(DataSourceProperties properties, String url,
+			String poolName, Environment environment, MeterRegistry registry) {
+		
+		HikariDataSource pool = properties.initializeDataSourceBuilder()
+				.type(HikariDataSource.class)
+				.url(url)
+				.build();
+		
+		Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+		pool.setPoolName(poolName);
+		pool.setMetricRegistry(registry);
+		return pool;
+	}
+}
@@ -0,0 +1,89 @@
+package pet.store.config;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**************************************************************************
+ * Read-your-writes for replica routing. A write hands the client a 
+ * cookie holding the time until which its reads go to the primary, 
+ * "window" from now, so replication lag cannot hide what it just saved.
+ * The cookie travels with the client, which keeps clients behind the 
+ * same proxy or NAT apart and works across instances. A client that 
+ * does not keep cookies reads from the replicas at once.
+ *
+ * The cookie is set before the write runs, because the response may be
+ * committed by the time the chain returns. A failed write only costs the
+ * client a few reads from the primary.
+ **************************************************************************/
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+	private static final String COOKIE = "pet_store_read_primary_until";
+	
+	private static final Set<String> READ_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+	
+	private final Duration window;
+	
+	public ReadYourWritesFilter(Duration window) {
+		this.window = window;
+	}
+	
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+			FilterChain filterChain) throws ServletException, IOException {
+		
+		long now = System.currentTimeMillis();
+		
+		if(primaryUntil(request) > now) {
+			ReplicaRoutingDataSource.pinToPrimary();
+		}
+		
+		if(!READ_METHODS.contains(request.getMethod()) && window.isPositive()) {
+			Cookie cookie = new Cookie(COOKIE, String.valueOf(now + window.toMillis()));
+			cookie.setPath("/");
+			cookie.setHttpOnly(true);
+			cookie.setMaxAge((int)Math.max(1, window.toSeconds() + 1));
+			response.addCookie(cookie);
+		}
+		
+		try {
+			filterChain.doFilter(request, response);
+		}
+		finally {
+			ReplicaRoutingDataSource.unpin();
+		}
+	}
+	
+	/*
+	 * The time is checked as well as Max-Age, for clients that replay a 
+	 * cookie after it expired. A malformed value is no pin.
+	 */
+	private static long primaryUntil(HttpServletRequest request) {
+		Cookie[] cookies = request.getCookies();
+		
+		if(Objects.isNull(cookies)) {
+			return 0;
+		}
+		
+		for(Cookie cookie : cookies) {
+			if(COOKIE.equals(cookie.getName())) {
+				try {
+					return Long.parseLong(cookie.getValue());
+				}
+				catch(NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,123 @@
+package pet.store.config;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**************************************************************************
+ * The read-only side of the application DataSource. Each connection goes
+ * round robin to one of the replicas that passed the last health check.
+ * It falls back to the primary when no replica is healthy, or when the
+ * current thread is pinned to the primary for read-your-writes.
+ **************************************************************************/
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+	static final String PRIMARY = "primary";
+
+	private static final ThreadLocal<Boolean> PINNED_TO_PRIMARY = new ThreadLocal<>();
+
+	private final Map<String, DataSource> replicas;
+	private final int validationTimeoutSeconds;
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile List<String> healthyReplicas;
+
+	public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas,
+			int validationTimeoutSeconds, MeterRegistry registry) {
+		this.replicas = new LinkedHashMap<>(replicas);
+		this.validationTimeoutSeconds = validationTimeoutSeconds;
+		this.healthyReplicas = List.of();
+
+		Map<Object, Object> targets = new HashMap<>(replicas);
+		targets.put(PRIMARY, primary);
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(primary);
+		setLenientFallback(false);
+
+		Gauge.builder("pet.store.datasource.replicas.healthy", this,
+				routing -> routing.healthyReplicas.size())
+				.description("Replicas that passed the last health check")
+				.register(registry);
+	}
+
+	/*******************************************************************
+	 * pinToPrimary() sends this thread's reads to the primary until
+	 * unpin() is called.
+	 *******************************************************************/
+	static void pinToPrimary() {
+		PINNED_TO_PRIMARY.set(Boolean.TRUE);
+	}
+
+	static void unpin() {
+		PINNED_TO_PRIMARY.remove();
+	}
+
+	/* Replicas join the rotation only after passing a first check. */
+	@Override
+	public void afterPropertiesSet() {
+		super.afterPropertiesSet();
+		checkHealth();
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		List<String> healthy = healthyReplicas;
+
+		if(healthy.isEmpty() || Boolean.TRUE.equals(PINNED_TO_PRIMARY.get())) {
+			return PRIMARY;
+		}
+		return healthy.get(Math.floorMod(next.getAndIncrement(), healthy.size()));
+	}
+
+	/*******************************************************************
+	 * checkHealth() validates one connection from each replica pool. A
+	 * replica that fails leaves the rotation until a later check passes.
+	 *******************************************************************/
+	void checkHealth() {
+		List<String> healthy = new ArrayList<>(replicas.size());
+
+		for(Map.Entry<String, DataSource> replica : replicas.entrySet()) {
+			if(isValid(replica.getValue())) {
+				healthy.add(replica.getKey());
+			}
+		}
+
+		List<String> previous = healthyReplicas;
+
+		if(!healthy.equals(previous)) {
+			log.warn("Healthy read replicas changed from {} to {}", previous, healthy);
+		}
+		healthyReplicas = List.copyOf(healthy);
+	}
+
+	/*******************************************************************
+	 * isValid() goes past the replica's connection limiter straight to
+	 * its pool, so a replica whose permits are all taken by reads is not
+	 * mistaken for one that is down.
+	 *******************************************************************/
+	private boolean isValid(DataSource dataSource) {
+		DataSource pool = dataSource instanceof ConnectionLimitingDataSource limited 
+				? limited.getTargetDataSource() : dataSource;
+		
+		try(Connection connection = pool.getConnection()) {
+			return connection.isValid(validationTimeoutSeconds);
+		}
+		catch(SQLException | RuntimeException e) {
+			// a pool that cannot start throws Hikari's unchecked PoolInitializationException
+			return false;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package pet.store.config;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**************************************************************************
+ * Registers RequestLimitInterceptor on the /pet_store endpoints when
+ * pet-store.limits.rate.enabled or pet-store.limits.concurrency.enabled
+ * is true. The rates per endpoint are bound from 
+ * pet-store.limits.rate.endpoints, keyed by controller method name.
+ **************************************************************************/
+@Configuration
+public class RequestLimitConfig implements WebMvcConfigurer {
+
+	private final RequestLimitInterceptor interceptor;
+	
+	public RequestLimitConfig(Environment environment, MeterRegistry registry,
+			@Value("${pet-store.limits.rate.enabled:false}") boolean rateEnabled,
+			@Value("${pet-store.limits.rate.idle-timeout:10m}") Duration idleTimeout,
+			@Value("${pet-store.limits.concurrency.enabled:false}") boolean concurrencyEnabled,
+			@Value("${pet-store.limits.concurrency.initial-limit:20}") int initialLimit,
+			@Value("${pet-store.limits.concurrency.min-limit:4}") int minLimit,
+			@Value("${pet-store.limits.concurrency.max-limit:200}") int maxLimit,
+			@Value("${pet-store.limits.concurrency.smoothing:0.2}") double smoothing) {
+		
+		ClientRateLimiter rateLimiter = null;
+		GradientConcurrencyLimiter concurrencyLimiter = null;
+		
+		if(rateEnabled) {
+			Map<String, ClientRateLimiter.Limit> limits = Binder.get(environment)
+					.bind("pet-store.limits.rate.endpoints", 
+							Bindable.mapOf(String.class, ClientRateLimiter.Limit.class))
+					.orElse(Map.of());
+			rateLimiter = new ClientRateLimiter(limits, idleTimeout);
+		}
+		
+		if(concurrencyEnabled) {
+			concurrencyLimiter = new GradientConcurrencyLimiter(initialLimit, minLimit, maxLimit,
+					smoothing, registry);
+		}
+		
+		interceptor = rateEnabled || concurrencyEnabled 
+				? new RequestLimitInterceptor(rateLimiter, concurrencyLimiter, registry) 
+				: null;
+	}
+	
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		if(interceptor != null) {
+			registry.addInterceptor(interceptor).addPathPatterns("/pet_store/**");
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package pet.store.config;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**************************************************************************
+ * Admission control for the controllers. The endpoint is the controller
+ * method name and the client is the remote address. Behind a proxy that
+ * is the X-Forwarded-For address: server.forward-headers-strategy lets
+ * Tomcat's RemoteIpValve replace the proxy's address with the client's,
+ * so clients behind one proxy do not share a bucket. A request first 
+ * takes a token from the client's bucket (429 when empty), then a slot
+ * under the adaptive concurrency limit (503 when full). Either limiter 
+ * may be null when it is turned off.
+ *
+ * Rejections are counted in pet.store.requests.rejected, tagged with
+ * the reason and endpoint.
+ **************************************************************************/
+public class RequestLimitInterceptor implements AsyncHandlerInterceptor {
+
+	private static final String ADMITTED_AT = RequestLimitInterceptor.class.getName() 
+			+ ".admittedAt";
+	
+	private final ClientRateLimiter rateLimiter;
+	private final GradientConcurrencyLimiter concurrencyLimiter;
+	private final MeterRegistry registry;
+	
+	public RequestLimitInterceptor(ClientRateLimiter rateLimiter, 
+			GradientConcurrencyLimiter concurrencyLimiter, MeterRegistry registry) {
+		this.rateLimiter = rateLimiter;
+		this.concurrencyLimiter = concurrencyLimiter;
+		this.registry = registry;
+	}
+	
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, 
+			Object handler) {
+		
+		// an async re-dispatch was admitted on the first dispatch
+		if(request.getDispatcherType() != DispatcherType.REQUEST 
+				|| !(handler instanceof HandlerMethod handlerMethod)) {
+			return true;
+		}
+		
+		String endpoint = handlerMethod.getMethod().getName();
+		
+		if(Objects.nonNull(rateLimiter)) {
+			long waitNanos = rateLimiter.tryAcquire(request.getRemoteAddr(), endpoint);
+			
+			if(waitNanos > 0) {
+				reject("rate-limit", endpoint);
+				throw new RateLimitExceededException("Rate limit for " + endpoint + " exceeded.", 
+						Duration.ofNanos(waitNanos));
+			}
+		}
+		
+		if(Objects.nonNull(concurrencyLimiter)) {
+			if(!concurrencyLimiter.tryAcquire()) {
+				reject("overload", endpoint);
+				throw new ServerOverloadedException("Server is at its concurrency limit of " 
+						+ concurrencyLimiter.getLimit() + " requests. Retry later.");
+			}
+			request.setAttribute(ADMITTED_AT, System.nanoTime());
+		}
+		
+		return true;
+	}
+	
+	/* A streamed response holds its slot only until streaming starts and gives no sample. */
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, 
+			HttpServletResponse response, Object handler) {
+		if(Objects.nonNull(request.getAttribute(ADMITTED_AT))) {
+			request.removeAttribute(ADMITTED_AT);
+			concurrencyLimiter.release(-1);
+		}
+	}
+	
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, 
+			Object handler, Exception ex) {
+		if(request.getAttribute(ADMITTED_AT) instanceof Long admittedAt) {
+			request.removeAttribute(ADMITTED_AT);
+			concurrencyLimiter.release(System.nanoTime() - admittedAt);
+		}
+	}
+	
+	/******************************************************************/
+	private void reject(String reason, String endpoint) {
+		Counter.builder("pet.store.requests.rejected")
+				.description("Requests refused by the rate or concurrency limit")
+				.tag("reason", reason)
+				.tag("endpoint", endpoint)
+				.register(registry)
+				.increment();
+	}
+}
@@ -0,0 +1,65 @@
+package pet.store.config;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**************************************************************************
+ * Hibernate's own statistics (published by hibernate-micrometer) give the
+ * hits, misses and puts of every second-level cache region, but not the
+ * evictions done by Caffeine for size or TTL. Caffeine publishes those
+ * through the JCache statistics MBeans, which are read here per region.
+ **************************************************************************/
+@Component
+@Slf4j
+public class SecondLevelCacheMetrics implements MeterBinder {
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+	
+	private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+	
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		SessionFactoryImplementor sessionFactory = 
+				entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+		
+		for(String region : sessionFactory.getCache().getCacheRegionNames()) {
+			FunctionCounter.builder("hibernate.second.level.cache.evictions", region, 
+					this::evictionCount)
+				.tag("region", region)
+				.description("Entries evicted from the region by size or expiry")
+				.register(registry);
+		}
+	}
+	
+	/******************************************************************/
+	private double evictionCount(String region) {
+		try {
+			ObjectName pattern = new ObjectName(
+					"javax.cache:type=CacheStatistics,Cache=" + region + ",*");
+			double evictions = 0;
+			
+			for(ObjectName name : mBeanServer.queryNames(pattern, null)) {
+				evictions += ((Number)mBeanServer.getAttribute(name, "CacheEvictions")).doubleValue();
+			}
+			return evictions;
+		}
+		catch(JMException e) {
+			log.debug("Cannot read evictions of cache region {}: {}", region, e.toString());
+			return Double.NaN;
+		}
+	}
+}
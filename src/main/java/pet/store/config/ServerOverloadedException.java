@@ -0,0 +1,14 @@
+package pet.store.config;
+
+/**************************************************************************
+ * The adaptive concurrency limit is reached and the request was shed.
+ * The controller error handler turns it into 503 Service Unavailable.
+ **************************************************************************/
+public class ServerOverloadedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ServerOverloadedException(String message) {
+		super(message);
+	}
+}
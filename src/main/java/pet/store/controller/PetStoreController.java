@@ -1,24 +1,56 @@
 package pet.store.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 import lombok.extern.slf4j.Slf4j;
+import pet.store.config.IdempotencyKeyStore;
+import pet.store.controller.model.ImportReport;
+import pet.store.controller.model.IngestionStatus;
+import pet.store.controller.model.KeysetPage;
+import pet.store.controller.model.PetStoreBatchResult;
 import pet.store.controller.model.PetStoreData;
 import pet.store.controller.model.PetStoreData.PetStoreCustomer;
 import pet.store.controller.model.PetStoreData.PetStoreEmployee;
+import pet.store.service.ExportFormat;
+import pet.store.service.PetStoreExporter;
+import pet.store.service.PetStoreImporter;
+import pet.store.service.PetStoreInclude;
+import pet.store.service.PetStoreIngestionQueue;
+import pet.store.service.PetStoreMemberSort;
 import pet.store.service.PetStoreService;
 
 @RestController
@@ -29,28 +61,88 @@ public class PetStoreController {
 	@Autowired
 	private PetStoreService petStoreService;
 	
+	@Autowired
+	private ObjectMapper objectMapper;
+	
+	@Autowired
+	private PetStoreIngestionQueue ingestionQueue;
+	
+	@Autowired
+	private PetStoreExporter petStoreExporter;
+	
+	@Autowired
+	private PetStoreImporter petStoreImporter;
+	
+	@Autowired
+	private IdempotencyKeyStore idempotencyKeyStore;
+	
+	@Value("${pet-store.http.detail-max-age:0s}")
+	private Duration detailMaxAge;
+	
+	@Value("${pet-store.http.list-max-age:5s}")
+	private Duration listMaxAge;
+	
 	/**************************************************************************
 	 *                   Create a pet_store. All the fields of petStore 
-	 *                   is provided by the user
+	 *                   is provided by the user. The create POSTs take an
+	 *                   Idempotency-Key header; a retry with the same key
+	 *                   gets the first response back.
     **************************************************************************/
 	@PostMapping("/pet_store") //resource name
-	@ResponseStatus(code = HttpStatus.CREATED)
-	public PetStoreData createPetStore(@RequestBody PetStoreData petStoreData) 
+	public ResponseEntity<?> createPetStore(
+			@RequestHeader(name = IdempotencyKeyStore.HEADER, required = false) String idempotencyKey,
+			@RequestBody PetStoreData petStoreData) 
 	{
 		log.info("Creating and then saving Pet Store data {}", petStoreData);
-		return petStoreService.savePetStore(petStoreData);
+		return idempotencyKeyStore.execute(idempotencyKey, List.of("store", petStoreData), 
+				() -> ResponseEntity.status(HttpStatus.CREATED)
+						.body(petStoreService.savePetStore(petStoreData)));
 	}
 	
 	/**************************************************************************
 	 *      Update a pet_store. User has to provide the petStoreID.
+	 *      With If-Match: "<version>" the update only applies to that version
+	 *      (412 otherwise); a GET's ETag works too. The new version comes 
+	 *      back as the ETag.
     **************************************************************************/
 	@PutMapping("/pet_store/{petStoreId}") // resource ID
-	public PetStoreData updatePetStoreData(@PathVariable Long petStoreId,
+	public ResponseEntity<PetStoreData> updatePetStoreData(@PathVariable Long petStoreId,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
 			@RequestBody PetStoreData petStoreData) 
 	{
 		petStoreData.setPetStoreId(petStoreId);
-		log.info("Updating a Pet Store {}", petStoreData);
-		return petStoreService.savePetStore(petStoreData);
+		log.info("Updating a Pet Store {}, If-Match={}", petStoreData, ifMatch);
+		PetStoreData saved = petStoreService.savePetStore(petStoreData, parseIfMatch(ifMatch));
+		
+		return ResponseEntity.ok()
+				.eTag(String.valueOf(saved.getVersion()))
+				.body(saved);
+	}
+	
+	/**************************************************************************
+	 *      parseIfMatch() reads the version out of an If-Match header. No
+	 *      header, or "*", means any version. A GET with collections tags
+	 *      the version with their member versions ("7-e12-c30"); only the
+	 *      store's version, before the first '-', matters to an update.
+    **************************************************************************/
+	private static Long parseIfMatch(String ifMatch) {
+		if(Objects.isNull(ifMatch) || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+			return null;
+		}
+		String tag = ifMatch.trim();
+		
+		if(tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+			String version = tag.substring(1, tag.length() - 1);
+			int members = version.indexOf('-');
+			
+			try {
+				return Long.valueOf(members < 0 ? version : version.substring(0, members));
+			}
+			catch(NumberFormatException e) {
+				// falls through to the error below
+			}
+		}
+		throw new IllegalArgumentException("If-Match " + ifMatch + " is NOT a valid ETag.");
 	}
 	
 	/**************************************************************************
@@ -63,32 +155,228 @@ public class PetStoreController {
 	}
 	
 	/**************************************************************************
-	 *                     Delete a pet_store for a given petStoreId
+	 *                     Delete a pet_store for a given petStoreId. 
+	 *             202: the store is gone from every read at once; its
+	 *             employees and customer links are removed in the background.
     **************************************************************************/
 	@DeleteMapping("/pet_store/{petStoreId}")
-	public Map<String, String> deletePetStoreById(@PathVariable Long petStoreId) {
+	public ResponseEntity<Map<String, String>> deletePetStoreById(@PathVariable Long petStoreId) {
 		log.info("Deleting a petStore with ID={}", petStoreId);
 		petStoreService.deletePetStoreById(petStoreId);
 		
-		return Map.of("message", "Deletion of petStore with ID=" + petStoreId + " was successful.");
+		return ResponseEntity.accepted().body(Map.of("message", "Deletion of petStore with ID=" 
+				+ petStoreId + " was accepted; its employees and customer links are being removed."));
 	}
 	
 	/**************************************************************************
 	 *                       Retrieve all petStores
     **************************************************************************/
 	@GetMapping("/pet_store")
-	public List<PetStoreData> retrieveAllPetStores() {
-		log.info("Retrieving all the Pet Stores data.");
-		return petStoreService.retrieveAllPetStores();
+	public ResponseEntity<KeysetPage<PetStoreData>> retrieveAllPetStores(
+			@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Integer limit) {
+		log.info("Retrieving a page of Pet Stores data, cursor={}, limit={}", cursor, limit);
+		return listResponse(petStoreService.retrieveAllPetStores(cursor, limit));
+	}
+	
+	/**************************************************************************
+	 *       Stream all petStores as NDJSON (one JSON object per line). 
+	 *       Rows are written as they are read from the database.
+    **************************************************************************/
+	@GetMapping(value = "/pet_store", params = "format=ndjson")
+	public ResponseEntity<StreamingResponseBody> streamAllPetStores() {
+		log.info("Streaming all the Pet Stores data as NDJSON.");
+		ObjectWriter writer = objectMapper.writerFor(PetStoreData.class)
+				.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+				.without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+		
+		StreamingResponseBody body = outputStream -> 
+			petStoreService.streamAllPetStores(petStoreData -> {
+				try {
+					writer.writeValue(outputStream, petStoreData);
+					outputStream.write('\n');
+				}
+				catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_NDJSON)
+				.body(body);
+	}
+
+	/**************************************************************************
+	 *       Export all petStores with their employees and customers as
+	 *       ?format=csv or ?format=ndjson (the default); ?gzip=true
+	 *       compresses the download.
+    **************************************************************************/
+	@GetMapping("/export")
+	public ResponseEntity<StreamingResponseBody> exportPetStores(
+			@RequestParam(required = false) String format,
+			@RequestParam(defaultValue = "false") boolean gzip) {
+		ExportFormat exportFormat = ExportFormat.fromParameter(format);
+		log.info("Exporting all the Pet Stores data as {} (gzip={}).", exportFormat, gzip);
+
+		StreamingResponseBody body = outputStream -> {
+			if(gzip) {
+				GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream, 64 * 1024);
+				petStoreExporter.export(exportFormat, gzipStream);
+				gzipStream.finish();
+			}
+			else {
+				petStoreExporter.export(exportFormat, outputStream);
+			}
+		};
+
+		String fileName = "pet-stores." + exportFormat.getExtension() + (gzip ? ".gz" : "");
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+				.contentType(exportFormat.getMediaType())
+				.header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+						.filename(fileName).build().toString());
+
+		if(gzip) {
+			response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+		}
+		return response.body(body);
+	}
+
+	/**************************************************************************
+	 *       Import a file written by the export (?format=csv or ndjson, 
+	 *       the default), upserting stores, employees and customers by 
+	 *       ID. Content-Encoding: gzip bodies are decompressed. A failed 
+	 *       import answers 500 with the report; send the same body again
+	 *       with ?resumeAfter=<checkpoint> to carry on.
+    **************************************************************************/
+	@PostMapping(value = "/import", consumes = { "text/csv", MediaType.APPLICATION_NDJSON_VALUE, 
+			MediaType.APPLICATION_OCTET_STREAM_VALUE })
+	public ResponseEntity<ImportReport> importPetStores(
+			@RequestParam(required = false) String format,
+			@RequestParam(defaultValue = "0") long resumeAfter,
+			@RequestHeader(name = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+			InputStream body) throws IOException {
+		ExportFormat importFormat = ExportFormat.fromParameter(format);
+		log.info("Importing Pet Stores data as {}, resumeAfter={}", importFormat, resumeAfter);
+		
+		InputStream inputStream = "gzip".equalsIgnoreCase(contentEncoding) 
+				? new GZIPInputStream(body, 64 * 1024) : body;
+		ImportReport report = petStoreImporter.importRecords(inputStream, importFormat, 
+				resumeAfter, record -> {});
+		
+		return ResponseEntity.status(report.isCompleted() 
+				? HttpStatus.OK : HttpStatus.INTERNAL_SERVER_ERROR).body(report);
+	}
+	
+	/**************************************************************************
+	 *       Search petStores, customers or employees by prefix. 
+	 *       ?type=store takes city, state and zip; ?type=customer takes 
+	 *       email and lastName; ?type=employee takes lastName.
+    **************************************************************************/
+	@GetMapping("/pet_store/search")
+	public List<PetStoreData> searchWithoutType() {
+		throw new IllegalArgumentException("Search type must be store, customer or employee.");
+	}
+	
+	/**************************************************************************/
+	@GetMapping(value = "/pet_store/search", params = "type=store")
+	public List<PetStoreData> searchPetStores(
+			@RequestParam(required = false) String city,
+			@RequestParam(required = false) String state,
+			@RequestParam(required = false) String zip,
+			@RequestParam(required = false) Integer limit) {
+		log.info("Searching Pet Stores, city={}, state={}, zip={}", city, state, zip);
+		return petStoreService.searchPetStores(city, state, zip, limit);
+	}
+	
+	/**************************************************************************/
+	@GetMapping(value = "/pet_store/search", params = "type=customer")
+	public List<PetStoreCustomer> searchCustomers(
+			@RequestParam(required = false) String email,
+			@RequestParam(required = false) String lastName,
+			@RequestParam(required = false) Integer limit) {
+		log.info("Searching customers, email={}, lastName={}", email, lastName);
+		return petStoreService.searchCustomers(email, lastName, limit);
+	}
+	
+	/**************************************************************************/
+	@GetMapping(value = "/pet_store/search", params = "type=employee")
+	public List<PetStoreEmployee> searchEmployees(
+			@RequestParam(required = false) String lastName,
+			@RequestParam(required = false) Integer limit) {
+		log.info("Searching employees, lastName={}", lastName);
+		return petStoreService.searchEmployees(lastName, limit);
 	}
 	
 	/**************************************************************************
-	 *                   Retrieve a petStore by petStoreId
+	 *                   Retrieve a petStore by petStoreId. 
+	 *        ?include=all|employees|customers|none picks the collections.
+	 *        The ETag is the petStore's version plus, per included 
+	 *        collection, the sum of its members' versions, so editing a
+	 *        shared customer through another store changes it too. 
+	 *        If-None-Match with the current ETag gets 304 after version-
+	 *        only lookups, before the petStore or its collections are 
+	 *        loaded.
     **************************************************************************/
 	@GetMapping("/pet_store/{petStoreId}")
-	public PetStoreData retrievePetStoreById(@PathVariable Long petStoreId) {
-		log.info("Retrieving Pet Store data for a given ID {}", petStoreId);
-		return petStoreService.retrievePetStoreById(petStoreId);
+	public ResponseEntity<PetStoreData> retrievePetStoreById(@PathVariable Long petStoreId,
+			@RequestParam(required = false) String include, WebRequest webRequest) {
+		log.info("Retrieving Pet Store data for a given ID {}, include={}", petStoreId, include);
+		PetStoreInclude petStoreInclude = PetStoreInclude.fromParameter(include);
+		
+		if(Objects.nonNull(webRequest.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+			String eTag = petStoreService.retrievePetStoreETag(petStoreId, petStoreInclude);
+			
+			// checkNotModified() has already set the ETag header and the 304 status
+			if(webRequest.checkNotModified(eTag)) {
+				return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+						.cacheControl(cacheControl(detailMaxAge))
+						.varyBy(HttpHeaders.ACCEPT)
+						.build();
+			}
+		}
+		
+		PetStoreData petStoreData = petStoreService.retrievePetStoreById(petStoreId, 
+				petStoreInclude);
+		
+		// the snapshot's own versions: they may be older than the lookup above
+		return ResponseEntity.ok()
+				.eTag(PetStoreService.eTagOf(petStoreData, petStoreInclude))
+				.cacheControl(cacheControl(detailMaxAge))
+				.varyBy(HttpHeaders.ACCEPT)
+				.body(petStoreData);
+	}
+	
+	/**************************************************************************
+	 *       Retrieve one page of a petStore's employees. 
+	 *       ?sort=id|lastName, ?name= filters on a first or last name prefix.
+    **************************************************************************/
+	@GetMapping("/pet_store/{petStoreId}/employee")
+	public ResponseEntity<KeysetPage<PetStoreEmployee>> retrieveEmployees(@PathVariable Long petStoreId,
+			@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Integer limit,
+			@RequestParam(required = false) String sort,
+			@RequestParam(required = false) String name) {
+		log.info("Retrieving a page of employees for petStore with ID={}, cursor={}, sort={}", 
+				petStoreId, cursor, sort);
+		return listResponse(petStoreService.retrieveEmployees(petStoreId, cursor, limit, 
+				PetStoreMemberSort.fromParameter(sort), name));
+	}
+	
+	/**************************************************************************
+	 *       Retrieve one page of a petStore's customers. 
+	 *       ?sort=id|lastName, ?name= and ?email= filter on a prefix.
+    **************************************************************************/
+	@GetMapping("/pet_store/{petStoreId}/customer")
+	public ResponseEntity<KeysetPage<PetStoreCustomer>> retrieveCustomers(@PathVariable Long petStoreId,
+			@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Integer limit,
+			@RequestParam(required = false) String sort,
+			@RequestParam(required = false) String name,
+			@RequestParam(required = false) String email) {
+		log.info("Retrieving a page of customers for petStore with ID={}, cursor={}, sort={}", 
+				petStoreId, cursor, sort);
+		return listResponse(petStoreService.retrieveCustomers(petStoreId, cursor, limit, 
+				PetStoreMemberSort.fromParameter(sort), name, email));
 	}
 	
 	/**************************************************************************
@@ -99,24 +387,124 @@ public class PetStoreController {
 	 *             is provided by the user
     *************************************************************************/
 	@PostMapping("/pet_store/{petStoreId}/employee")
-	@ResponseStatus(code = HttpStatus.CREATED)
-	public PetStoreEmployee createEmployeeData(@PathVariable Long petStoreId,
+	public ResponseEntity<?> createEmployeeData(@PathVariable Long petStoreId,
+			@RequestHeader(name = IdempotencyKeyStore.HEADER, required = false) String idempotencyKey,
 			@RequestBody PetStoreEmployee petStoreEmployee) {
 		log.info("Creating and then saving Employee data with ID={}", petStoreEmployee, petStoreId);
 		
-		return petStoreService.saveEmployee(petStoreId, petStoreEmployee);
+		return idempotencyKeyStore.execute(idempotencyKey, 
+				List.of("employee", petStoreId, petStoreEmployee), () -> {
+			if(ingestionQueue.isEnabled()) {
+				return accepted(ingestionQueue.submitEmployee(petStoreId, petStoreEmployee));
+			}
+			return ResponseEntity.status(HttpStatus.CREATED)
+					.body(petStoreService.saveEmployee(petStoreId, petStoreEmployee));
+		});
 	}
 		
+	/**************************************************************************
+	 *             Create or update many employees of a pet_store in one
+	 *             request. Rows that fail are listed in the result.
+    **************************************************************************/
+	@PostMapping("/pet_store/{petStoreId}/employees:batch")
+	public ResponseEntity<?> createEmployeesBatch(@PathVariable Long petStoreId,
+			@RequestHeader(name = IdempotencyKeyStore.HEADER, required = false) String idempotencyKey,
+			@RequestBody List<PetStoreEmployee> petStoreEmployees) {
+		requireRows(petStoreEmployees);
+		log.info("Saving a batch of {} employees for petStore with ID={}", 
+				petStoreEmployees.size(), petStoreId);
+		
+		return idempotencyKeyStore.execute(idempotencyKey, 
+				List.of("employees", petStoreId, petStoreEmployees), 
+				() -> ResponseEntity.ok(petStoreService.saveEmployees(petStoreId, petStoreEmployees)));
+	}
+	
 	/**************************************************************************
 	 *             Create a pet_store customer. All the fields of customer 
-	 *             is provided by the user
+	 *             is provided by the user. A customer without an ID whose
+	 *             email is already known is that customer; it is linked
+	 *             to this pet_store instead of being created again.
     **************************************************************************/
 	@PostMapping("/pet_store/{petStoreId}/customer") 
-	@ResponseStatus(code = HttpStatus.CREATED)
-	public PetStoreCustomer createCustomer(@PathVariable Long petStoreId,
+	public ResponseEntity<?> createCustomer(@PathVariable Long petStoreId,
+			@RequestHeader(name = IdempotencyKeyStore.HEADER, required = false) String idempotencyKey,
 			@RequestBody PetStoreCustomer petStoreCustomer) {
 		
 		log.info("Creating and then saving Customer data with ID={}", petStoreCustomer, petStoreId);
-		return petStoreService.saveCustomer(petStoreId, petStoreCustomer);
+		
+		return idempotencyKeyStore.execute(idempotencyKey, 
+				List.of("customer", petStoreId, petStoreCustomer), () -> {
+			if(ingestionQueue.isEnabled()) {
+				return accepted(ingestionQueue.submitCustomer(petStoreId, petStoreCustomer));
+			}
+			return ResponseEntity.status(HttpStatus.CREATED)
+					.body(petStoreService.saveCustomer(petStoreId, petStoreCustomer));
+		});
+	}
+	
+	/**************************************************************************
+	 *             Create or update many customers of a pet_store in one
+	 *             request. Rows that fail are listed in the result.
+    **************************************************************************/
+	@PostMapping("/pet_store/{petStoreId}/customers:batch")
+	public ResponseEntity<?> createCustomersBatch(@PathVariable Long petStoreId,
+			@RequestHeader(name = IdempotencyKeyStore.HEADER, required = false) String idempotencyKey,
+			@RequestBody List<PetStoreCustomer> petStoreCustomers) {
+		requireRows(petStoreCustomers);
+		log.info("Saving a batch of {} customers for petStore with ID={}", 
+				petStoreCustomers.size(), petStoreId);
+		
+		return idempotencyKeyStore.execute(idempotencyKey, 
+				List.of("customers", petStoreId, petStoreCustomers), 
+				() -> ResponseEntity.ok(petStoreService.saveCustomers(petStoreId, petStoreCustomers)));
+	}
+	
+	/**************************************************************************
+	 *             A batch body must be a JSON array of objects; "null" (or
+	 *             a null element) is rejected like other bad input.
+    **************************************************************************/
+	private static void requireRows(List<?> rows) {
+		if(Objects.isNull(rows) || rows.contains(null)) {
+			throw new IllegalArgumentException("The request body must be a JSON array of rows, "
+					+ "with no null elements.");
+		}
+	}
+	
+	/**************************************************************************
+	 *             Where an employee or customer accepted with 202 stands:
+	 *             QUEUED, SAVED or FAILED (with the reason).
+    **************************************************************************/
+	@GetMapping("/pet_store/ingestion/{trackingId}")
+	public IngestionStatus retrieveIngestionStatus(@PathVariable String trackingId) {
+		return ingestionQueue.status(trackingId);
+	}
+	
+	/**************************************************************************
+	 *             202 Accepted pointing at the status of the submission
+    **************************************************************************/
+	private ResponseEntity<IngestionStatus> accepted(IngestionStatus status) {
+		return ResponseEntity.accepted()
+				.location(ServletUriComponentsBuilder.fromCurrentContextPath()
+						.path("/pet_store/pet_store/ingestion/{trackingId}")
+						.buildAndExpand(status.getTrackingId()).toUri())
+				.body(status);
+	}
+	
+	/**************************************************************************
+	 *             Listing pages carry no ETag; clients may reuse them for
+	 *             listMaxAge.
+    **************************************************************************/
+	private <T> ResponseEntity<T> listResponse(T body) {
+		return ResponseEntity.ok()
+				.cacheControl(cacheControl(listMaxAge))
+				.varyBy(HttpHeaders.ACCEPT)
+				.body(body);
+	}
+	
+	/**************************************************************************
+	 *             A zero max-age is no-cache: store, but revalidate first.
+    **************************************************************************/
+	private static CacheControl cacheControl(Duration maxAge) {
+		return maxAge.isZero() ? CacheControl.noCache() : CacheControl.maxAge(maxAge);
 	}
 }
@@ -0,0 +1,43 @@
+package pet.store.controller.error;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**************************************************************************
+ * Caps error logging at maxPerSecond lines. A scanner hitting bad IDs
+ * would otherwise write a log line per request. Lines over the cap are
+ * only counted, and the count is reported by the first line of the next
+ * second that logs.
+ **************************************************************************/
+final class ErrorLogLimiter {
+
+	private final int maxPerSecond;
+	private final AtomicLong second = new AtomicLong();
+	private final AtomicInteger logged = new AtomicInteger();
+	private final AtomicInteger suppressed = new AtomicInteger();
+	
+	ErrorLogLimiter(int maxPerSecond) {
+		this.maxPerSecond = maxPerSecond;
+	}
+	
+	/*******************************************************************
+	 * tryAcquire() returns -1 when this line must not be logged, 
+	 * otherwise the number of lines dropped since the last report.
+	 *******************************************************************/
+	int tryAcquire() {
+		long now = System.currentTimeMillis() / 1000;
+		long current = second.get();
+		
+		if(now != current && second.compareAndSet(current, now)) {
+			logged.set(1);
+			return suppressed.getAndSet(0);
+		}
+		
+		if(logged.incrementAndGet() <= maxPerSecond) {
+			return 0;
+		}
+		
+		suppressed.incrementAndGet();
+		return -1;
+	}
+}
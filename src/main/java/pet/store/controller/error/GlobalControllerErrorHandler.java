@@ -1,33 +1,67 @@
 package pet.store.controller.error;
 
+import java.net.URI;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.context.request.WebRequest;
 
-import lombok.Data;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import pet.store.config.IdempotencyKeyInUseException;
+import pet.store.config.IdempotencyKeyReusedException;
+import pet.store.config.RateLimitExceededException;
+import pet.store.config.ServerOverloadedException;
+import pet.store.service.IngestionQueueFullException;
+import pet.store.service.VersionMismatchException;
 
+/**************************************************************************
+ * Errors are answered with RFC 7807 problem details (application/
+ * problem+json): title is the status reason, detail the exception 
+ * message, instance the request URI, plus a timestamp property.
+ * 
+ * Bad IDs are the most common error, so the path is kept cheap: the 
+ * service's not-found exceptions have no stack trace, the timestamp 
+ * text is formatted once per second, and error logging is capped at
+ * pet-store.error-log.max-per-second lines. Server errors have a budget
+ * of their own (max-server-errors-per-second), so a flood of 404s
+ * cannot hide the 5xx that matter.
+ **************************************************************************/
 @RestControllerAdvice
 @Slf4j
 public class GlobalControllerErrorHandler {
 	private enum LogStatus {
 		STACK_TRACE, MESSAGE_ONLY
 	}
-		
-	@Data
-	private class ExceptionMessage {
-		private String message;
-		private String statusReason;
-		private int statusCode;
-		private String timestamp;
-		private String uri;
+	
+	/* RFC 1123 text of one epoch second */
+	private record Timestamp(long epochSecond, String text) {}
+	
+	private final ErrorLogLimiter clientErrorLogLimiter;
+	private final ErrorLogLimiter serverErrorLogLimiter;
+	private volatile Timestamp timestamp = new Timestamp(Long.MIN_VALUE, "");
+	
+	public GlobalControllerErrorHandler(
+			@Value("${pet-store.error-log.max-per-second:10}") int maxLogsPerSecond,
+			@Value("${pet-store.error-log.max-server-errors-per-second:10}") 
+			int maxServerErrorLogsPerSecond) {
+		clientErrorLogLimiter = new ErrorLogLimiter(maxLogsPerSecond);
+		serverErrorLogLimiter = new ErrorLogLimiter(maxServerErrorLogsPerSecond);
 	}
 	
 	/**************************************************************
@@ -35,10 +69,10 @@ public class GlobalControllerErrorHandler {
 	*************************************************************/
 	@ExceptionHandler(NoSuchElementException.class)
 	@ResponseStatus(code = HttpStatus.NOT_FOUND)
-	public ExceptionMessage handleNoSuchElementException(NoSuchElementException ex,
+	public ProblemDetail handleNoSuchElementException(NoSuchElementException ex,
 			WebRequest webRequest)
 	{
-		return buildExceptionMessage(ex, HttpStatus.NOT_FOUND, webRequest, LogStatus.MESSAGE_ONLY);
+		return buildProblemDetail(ex, HttpStatus.NOT_FOUND, webRequest, LogStatus.MESSAGE_ONLY);
 	}
 	
 	/**************************************************************
@@ -46,10 +80,10 @@ public class GlobalControllerErrorHandler {
 	*************************************************************/
 	@ExceptionHandler(UnsupportedOperationException.class)
 	@ResponseStatus(code = HttpStatus.METHOD_NOT_ALLOWED)
-	public ExceptionMessage handleUnsupportedOperationException(UnsupportedOperationException ex,
+	public ProblemDetail handleUnsupportedOperationException(UnsupportedOperationException ex,
 			WebRequest webRequest)
 	{
-		return buildExceptionMessage(ex, HttpStatus.METHOD_NOT_ALLOWED, webRequest, LogStatus.MESSAGE_ONLY);
+		return buildProblemDetail(ex, HttpStatus.METHOD_NOT_ALLOWED, webRequest, LogStatus.MESSAGE_ONLY);
 	}
 	
 	/**************************************************************
@@ -57,10 +91,125 @@ public class GlobalControllerErrorHandler {
 	*************************************************************/
 	@ExceptionHandler(IllegalArgumentException.class)
 	@ResponseStatus(code = HttpStatus.NOT_ACCEPTABLE)
-	public ExceptionMessage handleIllegalArgumentException(IllegalArgumentException ex,
+	public ProblemDetail handleIllegalArgumentException(IllegalArgumentException ex,
+			WebRequest webRequest)
+	{
+		return buildProblemDetail(ex, HttpStatus.NOT_ACCEPTABLE, webRequest, LogStatus.MESSAGE_ONLY);
+	}
+	
+	/**************************************************************
+	*             VersionMismatchException Error Handler
+	*************************************************************/
+	@ExceptionHandler(VersionMismatchException.class)
+	@ResponseStatus(code = HttpStatus.PRECONDITION_FAILED)
+	public ProblemDetail handleVersionMismatchException(VersionMismatchException ex,
+			WebRequest webRequest)
+	{
+		return buildProblemDetail(ex, HttpStatus.PRECONDITION_FAILED, webRequest, LogStatus.MESSAGE_ONLY);
+	}
+	
+	/**************************************************************
+	*        OptimisticLockingFailureException Error Handler
+	*        (concurrent updates kept winning the race)
+	*************************************************************/
+	@ExceptionHandler(OptimisticLockingFailureException.class)
+	@ResponseStatus(code = HttpStatus.CONFLICT)
+	public ProblemDetail handleOptimisticLockingFailureException(
+			OptimisticLockingFailureException ex, WebRequest webRequest)
+	{
+		return buildProblemDetail(ex, HttpStatus.CONFLICT, webRequest, LogStatus.MESSAGE_ONLY);
+	}
+	
+	/**************************************************************
+	*        PessimisticLockingFailureException Error Handler
+	*        (a row lock timed out, or the database broke a deadlock)
+	*************************************************************/
+	@ExceptionHandler(PessimisticLockingFailureException.class)
+	@ResponseStatus(code = HttpStatus.CONFLICT)
+	public ProblemDetail handlePessimisticLockingFailureException(
+			PessimisticLockingFailureException ex, WebRequest webRequest)
+	{
+		ProblemDetail problemDetail = buildProblemDetail(ex, HttpStatus.CONFLICT, webRequest, 
+				LogStatus.MESSAGE_ONLY);
+		// the transaction was rolled back, so the same request can simply be sent again
+		problemDetail.setDetail("A concurrent write held the data this request needed. "
+				+ "Nothing was saved; try again.");
+		return problemDetail;
+	}
+	
+	/**************************************************************
+	*        DataIntegrityViolationException Error Handler
+	*        (e.g. a customer email that another customer has)
+	*************************************************************/
+	@ExceptionHandler(DataIntegrityViolationException.class)
+	@ResponseStatus(code = HttpStatus.CONFLICT)
+	public ProblemDetail handleDataIntegrityViolationException(
+			DataIntegrityViolationException ex, WebRequest webRequest)
+	{
+		ProblemDetail problemDetail = buildProblemDetail(ex, HttpStatus.CONFLICT, webRequest, 
+				LogStatus.MESSAGE_ONLY);
+		// the exception message holds the SQL statement; it is only logged
+		problemDetail.setDetail("The change conflicts with existing data, "
+				+ "such as an email that another customer already has.");
+		return problemDetail;
+	}
+	
+	/**************************************************************
+	*             IdempotencyKeyInUseException Error Handler
+	*************************************************************/
+	@ExceptionHandler(IdempotencyKeyInUseException.class)
+	@ResponseStatus(code = HttpStatus.CONFLICT)
+	public ProblemDetail handleIdempotencyKeyInUseException(IdempotencyKeyInUseException ex,
 			WebRequest webRequest)
 	{
-		return buildExceptionMessage(ex, HttpStatus.NOT_ACCEPTABLE, webRequest, LogStatus.MESSAGE_ONLY);
+		return buildProblemDetail(ex, HttpStatus.CONFLICT, webRequest, LogStatus.MESSAGE_ONLY);
+	}
+	
+	/**************************************************************
+	*             IdempotencyKeyReusedException Error Handler
+	*************************************************************/
+	@ExceptionHandler(IdempotencyKeyReusedException.class)
+	@ResponseStatus(code = HttpStatus.UNPROCESSABLE_ENTITY)
+	public ProblemDetail handleIdempotencyKeyReusedException(IdempotencyKeyReusedException ex,
+			WebRequest webRequest)
+	{
+		return buildProblemDetail(ex, HttpStatus.UNPROCESSABLE_ENTITY, webRequest, LogStatus.MESSAGE_ONLY);
+	}
+	
+	/**************************************************************
+	*             IngestionQueueFullException Error Handler
+	*************************************************************/
+	@ExceptionHandler(IngestionQueueFullException.class)
+	@ResponseStatus(code = HttpStatus.TOO_MANY_REQUESTS)
+	public ProblemDetail handleIngestionQueueFullException(IngestionQueueFullException ex,
+			WebRequest webRequest)
+	{
+		return buildProblemDetail(ex, HttpStatus.TOO_MANY_REQUESTS, webRequest, LogStatus.MESSAGE_ONLY);
+	}
+	
+	/**************************************************************
+	*             RateLimitExceededException Error Handler
+	*             (Retry-After says when the client's next token is due)
+	*************************************************************/
+	@ExceptionHandler(RateLimitExceededException.class)
+	@ResponseStatus(code = HttpStatus.TOO_MANY_REQUESTS)
+	public ProblemDetail handleRateLimitExceededException(RateLimitExceededException ex,
+			WebRequest webRequest, HttpServletResponse response)
+	{
+		long seconds = Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1000);
+		response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+		return buildProblemDetail(ex, HttpStatus.TOO_MANY_REQUESTS, webRequest, LogStatus.MESSAGE_ONLY);
+	}
+	
+	/**************************************************************
+	*             ServerOverloadedException Error Handler
+	*************************************************************/
+	@ExceptionHandler(ServerOverloadedException.class)
+	@ResponseStatus(code = HttpStatus.SERVICE_UNAVAILABLE)
+	public ProblemDetail handleServerOverloadedException(ServerOverloadedException ex,
+			WebRequest webRequest)
+	{
+		return buildProblemDetail(ex, HttpStatus.SERVICE_UNAVAILABLE, webRequest, LogStatus.MESSAGE_ONLY);
 	}
 	
 	/****************************************************************
@@ -68,44 +217,71 @@ public class GlobalControllerErrorHandler {
 	****************************************************************/
 	@ExceptionHandler(NullPointerException.class)
 	@ResponseStatus(code = HttpStatus.INTERNAL_SERVER_ERROR)
-	public ExceptionMessage handleNullPointerException(NullPointerException ex,
+	public ProblemDetail handleNullPointerException(NullPointerException ex,
 			WebRequest webRequest)
 	{
-		return buildExceptionMessage(ex, HttpStatus.INTERNAL_SERVER_ERROR, webRequest, LogStatus.MESSAGE_ONLY);
+		return buildProblemDetail(ex, HttpStatus.INTERNAL_SERVER_ERROR, webRequest, LogStatus.MESSAGE_ONLY);
 	}
 	
 	/**************************************************************
-	*             buildExceptionMessage Method     
+	*             buildProblemDetail Method     
 	*************************************************************/	
-	private ExceptionMessage buildExceptionMessage(Exception ex,
+	private ProblemDetail buildProblemDetail(Exception ex,
 			HttpStatus status, WebRequest webRequest, LogStatus logStatus) {
-		String message = ex.toString();
-		String statusReason = status.getReasonPhrase();
-		int statusCode = status.value();
-		String uri = null;
-		String timestamp = ZonedDateTime.now().format(DateTimeFormatter.RFC_1123_DATE_TIME);
+		String detail = Objects.requireNonNullElse(ex.getMessage(), ex.getClass().getSimpleName());
+		ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(status, detail);
 			
 		if(webRequest instanceof ServletWebRequest swr) {
-			uri = swr.getRequest().getRequestURI();
+			problemDetail.setInstance(URI.create(swr.getRequest().getRequestURI()));
 		}
+		problemDetail.setProperty("timestamp", timestamp());
+		
+		log(ex, status, logStatus);
 			
-		if(logStatus == LogStatus.MESSAGE_ONLY) {
+		return problemDetail;
+	}
+	
+	/**************************************************************
+	*    Client errors are logged at WARN and server errors at ERROR,
+	*    each within its own log limiter's budget.
+	*************************************************************/	
+	private void log(Exception ex, HttpStatus status, LogStatus logStatus) {
+		boolean serverError = status.is5xxServerError();
+		int dropped = serverError ? serverErrorLogLimiter.tryAcquire() 
+				: clientErrorLogLimiter.tryAcquire();
+		
+		if(dropped < 0) {
+			return;
+		}
+		if(dropped > 0) {
+			log.warn("{} more {} error responses were not logged.", dropped, 
+					serverError ? "server" : "client");
+		}
+		
+		if(logStatus == LogStatus.STACK_TRACE) {
+			log.error("Exception: ", ex);
+		}
+		else if(serverError) {
 			log.error("Exception: {}", ex.toString());
 		}
 		else {
-			log.error("Exception: ", ex);
+			log.warn("Exception: {}", ex.toString());
 		}
-			
-		ExceptionMessage excMsg = new ExceptionMessage();
-		
-		excMsg.setMessage(message);
-		excMsg.setStatusCode(statusCode);
-		excMsg.setStatusReason(statusReason);
-		excMsg.setTimestamp(timestamp);
-		excMsg.setUri(uri);
-			
-		return excMsg;
+	}
+	
+	/**************************************************************
+	*    timestamp() formats the current second once; errors within 
+	*    the same second share the text.
+	*************************************************************/	
+	private String timestamp() {
+		long now = System.currentTimeMillis() / 1000;
+		Timestamp current = timestamp;
 		
+		if(current.epochSecond() != now) {
+			current = new Timestamp(now, ZonedDateTime.ofInstant(Instant.ofEpochSecond(now), 
+					ZoneId.systemDefault()).format(DateTimeFormatter.RFC_1123_DATE_TIME));
+			timestamp = current;
+		}
+		return current.text();
 	}
-
 }
@@ -0,0 +1,32 @@
+package pet.store.controller.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import pet.store.controller.model.PetStoreBatchResult.RowFailure;
+
+/**************************************************************************
+ * Outcome of a bulk import. A record is one CSV line or one NDJSON store
+ * line; rows are the stores, employees and customers written from them.
+ * Every record up to checkpoint is committed, so a failed import is 
+ * resumed with resumeAfter=checkpoint. Rejected records are listed in 
+ * failures by record number (up to pet-store.import.max-failures).
+ **************************************************************************/
+@Data
+@NoArgsConstructor
+public class ImportReport {
+
+	private boolean completed;
+	private String message;
+	private long checkpoint;
+	private long records;
+	private long stores;
+	private long employees;
+	private long customers;
+	private long rejected;
+	private long elapsedMillis;
+	private long rowsPerSecond;
+	private List<RowFailure> failures = new ArrayList<>();
+}
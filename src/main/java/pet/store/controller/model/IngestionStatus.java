@@ -0,0 +1,25 @@
+package pet.store.controller.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**************************************************************************
+ * Where an asynchronously submitted employee or customer save stands. 
+ * Returned with 202 Accepted and by GET /pet_store/ingestion/{trackingId}.
+ * message says why a FAILED row was not saved.
+ **************************************************************************/
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestionStatus {
+
+	public enum State {
+		QUEUED, SAVED, FAILED
+	}
+	
+	private String trackingId;
+	private Long petStoreId;
+	private State state;
+	private String message;
+}
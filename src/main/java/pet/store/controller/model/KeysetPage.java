@@ -0,0 +1,102 @@
+package pet.store.controller.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**************************************************************************
+ * One page of a keyset (seek) paginated listing. nextCursor is an opaque
+ * token holding the last ID of this page; the client passes it back as
+ * ?cursor= to get the following page. It is null on the last page.
+ **************************************************************************/
+@Data
+@NoArgsConstructor
+public class KeysetPage<T> {
+
+	private List<T> items = new ArrayList<>();
+	private String nextCursor;
+
+	public KeysetPage(List<T> items, String nextCursor) {
+		this.items = items;
+		this.nextCursor = nextCursor;
+	}
+
+	/*******************************************************************
+	 * encodeCursor() turns the last ID of a page into a URL-safe token.
+	 *******************************************************************/
+	public static String encodeCursor(Long lastId) {
+		if(Objects.isNull(lastId)) {
+			return null;
+		}
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(lastId.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/*******************************************************************
+	 * decodeCursor() is the reverse of encodeCursor(). A missing cursor
+	 * means "start from the beginning". A cursor that was not produced
+	 * by encodeCursor() gives IllegalArgumentException.
+	 *******************************************************************/
+	public static Long decodeCursor(String cursor) {
+		if(Objects.isNull(cursor) || cursor.isBlank()) {
+			return 0L;
+		}
+		try {
+			String decoded = new String(Base64.getUrlDecoder().decode(cursor),
+					StandardCharsets.UTF_8);
+			return Long.valueOf(decoded);
+		}
+		catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException("Cursor " + cursor + " is NOT valid.");
+		}
+	}
+	
+	/*******************************************************************
+	 * Position of the last row of a page sorted on a non-unique key. The
+	 * ID breaks ties between rows with the same key; key may be null.
+	 *******************************************************************/
+	public record Position(String key, Long id) {
+	}
+	
+	/*******************************************************************
+	 * encodeCursor() for a page sorted on key, then ID. The token is
+	 * "id" for a null key and "id:key" otherwise.
+	 *******************************************************************/
+	public static String encodeCursor(String key, Long lastId) {
+		if(Objects.isNull(lastId)) {
+			return null;
+		}
+		String position = Objects.isNull(key) ? lastId.toString() : lastId + ":" + key;
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/*******************************************************************
+	 * decodePosition() is the reverse of encodeCursor(key, lastId). A 
+	 * missing cursor is the position before the first row.
+	 *******************************************************************/
+	public static Position decodePosition(String cursor) {
+		if(Objects.isNull(cursor) || cursor.isBlank()) {
+			return new Position(null, 0L);
+		}
+		try {
+			String decoded = new String(Base64.getUrlDecoder().decode(cursor),
+					StandardCharsets.UTF_8);
+			int separator = decoded.indexOf(':');
+			
+			if(separator < 0) {
+				return new Position(null, Long.valueOf(decoded));
+			}
+			return new Position(decoded.substring(separator + 1), 
+					Long.valueOf(decoded.substring(0, separator)));
+		}
+		catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException("Cursor " + cursor + " is NOT valid.");
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package pet.store.controller.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**************************************************************************
+ * Outcome of a batch employee or customer save. Rows that could not be
+ * saved are listed in failures by their position in the request body;
+ * every other row was saved.
+ **************************************************************************/
+@Data
+@NoArgsConstructor
+public class PetStoreBatchResult {
+
+	private int submitted;
+	private int saved;
+	private List<RowFailure> failures = new ArrayList<>();
+	
+	public PetStoreBatchResult(int submitted) {
+		this.submitted = submitted;
+	}
+	
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	public static class RowFailure {
+		
+		private int index;
+		private String message;
+	}
+}
@@ -3,8 +3,11 @@ package pet.store.controller.model;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import pet.store.dao.PetStoreSummary;
 import pet.store.entity.Customer;
 import pet.store.entity.Employee;
 import pet.store.entity.PetStore;
@@ -22,31 +25,91 @@ public class PetStoreData {
 	private String petStoreZip;
 	private String petStorePhone;
 	
+	@JsonIgnore
+	private Long version;   // sent as the ETag header, not in the body
+	
 	private Set<PetStoreEmployee> employees = new HashSet<>();
 	private Set<PetStoreCustomer> customers = new HashSet<>();
 	
 	public PetStoreData(PetStore petStore)
+	{
+		this(petStore, true, true);
+	}
+	
+	/*
+	 * Only the collections that were asked for are walked, so a 
+	 * collection that was not fetched is never lazily loaded.
+	 */
+	public PetStoreData(PetStore petStore, boolean withEmployees, boolean withCustomers)
 	{
 		petStoreId = petStore.getPetStoreId();
 		petStoreName = petStore.getPetStoreName();
-		petStoreAddress = petStore.getPetStoreCity();
+		petStoreAddress = petStore.getPetStoreAddress();
 		petStoreCity = petStore.getPetStoreCity();
 		petStoreState = petStore.getPetStoreState();
 		petStoreZip = petStore.getPetStoreZip();
 		petStorePhone = petStore.getPetStorePhone();
+		version = petStore.getVersion();
 		
-		for(Customer customer: petStore.getCustomers()) 
+		if(withCustomers) 
 		{
-			this.customers.add(new PetStoreCustomer(customer));
+			for(Customer customer: petStore.getCustomers()) 
+			{
+				this.customers.add(new PetStoreCustomer(customer));
+			}
 		}
 		
-		for(Employee employee : petStore.getEmployees()) 
+		if(withEmployees) 
 		{
-			this.employees.add(new PetStoreEmployee(employee));
-		} 
+			for(Employee employee : petStore.getEmployees()) 
+			{
+				this.employees.add(new PetStoreEmployee(employee));
+			} 
+		}
 		
 	} //PetStoreData(PetPark petPark)
 	
+	/*
+	 * Summary view used by the listings. Only the scalar columns are
+	 * copied; employees and customers stay empty.
+	 */
+	public PetStoreData(PetStoreSummary petStoreSummary)
+	{
+		petStoreId = petStoreSummary.getPetStoreId();
+		petStoreName = petStoreSummary.getPetStoreName();
+		petStoreAddress = petStoreSummary.getPetStoreAddress();
+		petStoreCity = petStoreSummary.getPetStoreCity();
+		petStoreState = petStoreSummary.getPetStoreState();
+		petStoreZip = petStoreSummary.getPetStoreZip();
+		petStorePhone = petStoreSummary.getPetStorePhone();
+	}
+	
+	/*
+	 * Deep copy, members included: PetStoreDataCache hands one out per
+	 * request, so no caller can change the cached snapshot.
+	 */
+	public PetStoreData(PetStoreData petStoreData)
+	{
+		petStoreId = petStoreData.getPetStoreId();
+		petStoreName = petStoreData.getPetStoreName();
+		petStoreAddress = petStoreData.getPetStoreAddress();
+		petStoreCity = petStoreData.getPetStoreCity();
+		petStoreState = petStoreData.getPetStoreState();
+		petStoreZip = petStoreData.getPetStoreZip();
+		petStorePhone = petStoreData.getPetStorePhone();
+		version = petStoreData.getVersion();
+		
+		for(PetStoreEmployee employee : petStoreData.getEmployees()) 
+		{
+			this.employees.add(new PetStoreEmployee(employee));
+		}
+		
+		for(PetStoreCustomer customer : petStoreData.getCustomers()) 
+		{
+			this.customers.add(new PetStoreCustomer(customer));
+		}
+	}
+	
 	@Data
 	@NoArgsConstructor
 	public static class PetStoreEmployee {
@@ -57,6 +120,9 @@ public class PetStoreData {
 		private String employeePhone;
 		private String employeeJobTitle;
 		
+		@JsonIgnore
+		private Long version;   // only in the petStore's ETag
+		
 		public PetStoreEmployee(Employee employee){
 			
 			this.employeeId = employee.getEmployeeId();
@@ -64,6 +130,17 @@ public class PetStoreData {
 			this.employeeLastName = employee.getEmployeeLastName();
 			this.employeePhone = employee.getEmployeePhone();
 			this.employeeJobTitle = employee.getEmployeeJobTitle();
+			this.version = employee.getVersion();
+		}
+		
+		public PetStoreEmployee(PetStoreEmployee employee){
+			
+			this.employeeId = employee.getEmployeeId();
+			this.employeeFirstName = employee.getEmployeeFirstName();
+			this.employeeLastName = employee.getEmployeeLastName();
+			this.employeePhone = employee.getEmployeePhone();
+			this.employeeJobTitle = employee.getEmployeeJobTitle();
+			this.version = employee.getVersion();
 		}
 	}
 	
@@ -76,13 +153,25 @@ public class PetStoreData {
 		private String customerLastName;
 		private String customerEmail;
 		
+		@JsonIgnore
+		private Long version;   // only in the petStore's ETag
+		
 		public PetStoreCustomer(Customer customer)
 		{
 			this.customerId = customer.getCustomerId();
 			this.customerFirstName = customer.getCustomerFirstName();
 			this.customerLastName = customer.getCustomerLastName();
 			this.customerEmail = customer.getCustomerEmail();
-					
+			this.version = customer.getVersion();
+		}
+		
+		public PetStoreCustomer(PetStoreCustomer customer)
+		{
+			this.customerId = customer.getCustomerId();
+			this.customerFirstName = customer.getCustomerFirstName();
+			this.customerLastName = customer.getCustomerLastName();
+			this.customerEmail = customer.getCustomerEmail();
+			this.version = customer.getVersion();
 		}
 	}
 	
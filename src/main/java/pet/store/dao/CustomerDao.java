@@ -1,9 +1,79 @@
 package pet.store.dao;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 
 import pet.store.entity.Customer;
 
-public interface CustomerDao extends JpaRepository<Customer, Long> {
+public interface CustomerDao extends JpaRepository<Customer, Long>, 
+		JpaSpecificationExecutor<Customer> {
+
+	/* One indexed lookup in pet_store_customer; neither side's collection is loaded. */
+	@Query(value = "SELECT COUNT(*) FROM pet_store_customer "
+			+ "WHERE pet_store_id = :petStoreId AND customer_id = :customerId", nativeQuery = true)
+	long countPetStoreLink(Long petStoreId, Long customerId);
+
+	default boolean existsPetStoreLink(Long petStoreId, Long customerId) {
+		return countPetStoreLink(petStoreId, customerId) > 0;
+	}
+
+	/*
+	 * Sum of a store's customer versions: grows with every customer write,
+	 * through any store. Part of the ETag.
+	 */
+	@Query("SELECT COALESCE(SUM(c.version), 0) FROM PetStore p JOIN p.customers c "
+			+ "WHERE p.petStoreId = :petStoreId")
+	long sumVersionsByPetStoreId(Long petStoreId);
+
+	/* Emails are unique (customer_email_ux) and stored in lower case. */
+	Optional<Customer> findByCustomerEmail(String customerEmail);
+
+	List<Customer> findByCustomerEmailIn(Collection<String> customerEmails);
+
+	/*
+	 * Keyset page of a store's customers in ID order. name and email are
+	 * escaped LIKE patterns (escape character '!'), or null for no filter.
+	 */
+	@Query("SELECT c FROM PetStore p JOIN p.customers c "
+			+ "WHERE p.petStoreId = :petStoreId AND c.customerId > :afterId "
+			+ "AND (:name IS NULL OR c.customerFirstName LIKE :name ESCAPE '!' "
+			+ "OR c.customerLastName LIKE :name ESCAPE '!') "
+			+ "AND (:email IS NULL OR c.customerEmail LIKE :email ESCAPE '!') "
+			+ "ORDER BY c.customerId")
+	List<Customer> findPageOrderById(Long petStoreId, Long afterId, String name, String email, 
+			Limit limit);
+
+	/*
+	 * Keyset page of a store's customers in last name, then ID order. 
+	 * NULL last names sort first, as they do by default in MySQL and H2.
+	 */
+	@Query("SELECT c FROM PetStore p JOIN p.customers c "
+			+ "WHERE p.petStoreId = :petStoreId "
+			+ "AND ((:afterLastName IS NULL AND (c.customerLastName IS NOT NULL "
+			+ "OR c.customerId > :afterId)) "
+			+ "OR c.customerLastName > :afterLastName "
+			+ "OR (c.customerLastName = :afterLastName AND c.customerId > :afterId)) "
+			+ "AND (:name IS NULL OR c.customerFirstName LIKE :name ESCAPE '!' "
+			+ "OR c.customerLastName LIKE :name ESCAPE '!') "
+			+ "AND (:email IS NULL OR c.customerEmail LIKE :email ESCAPE '!') "
+			+ "ORDER BY c.customerLastName, c.customerId")
+	List<Customer> findPageOrderByLastName(Long petStoreId, String afterLastName, Long afterId, 
+			String name, String email, Limit limit);
 
+	/* Customers of any store matching every given prefix. */
+	default List<Customer> search(String email, String lastName, Sort sort, Limit limit) {
+		Specification<Customer> filter = Specification
+				.where(SearchSpecifications.<Customer>startsWith("customerEmail", email))
+				.and(SearchSpecifications.startsWith("customerLastName", lastName));
+		
+		return findBy(filter, query -> query.sortBy(sort).limit(limit.max()).all());
+	}
 }
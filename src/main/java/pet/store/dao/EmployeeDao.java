@@ -1,9 +1,65 @@
 package pet.store.dao;
 
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 
 import pet.store.entity.Employee;
 
-public interface EmployeeDao extends JpaRepository<Employee, Long> {
+public interface EmployeeDao extends JpaRepository<Employee, Long>, 
+		JpaSpecificationExecutor<Employee> {
+
+	/* Employee only if it works at the store; checks the pet_store_id column, no join. */
+	@Query("SELECT e FROM Employee e "
+			+ "WHERE e.employeeId = :employeeId AND e.petStore.petStoreId = :petStoreId")
+	Optional<Employee> findByIdAndPetStoreId(Long employeeId, Long petStoreId);
+
+	/* Sum of a store's employee versions: grows with every employee write. Part of the ETag. */
+	@Query("SELECT COALESCE(SUM(e.version), 0) FROM Employee e "
+			+ "WHERE e.petStore.petStoreId = :petStoreId")
+	long sumVersionsByPetStoreId(Long petStoreId);
+
+	/*
+	 * Keyset page of a store's employees in ID order. name is an escaped
+	 * LIKE pattern (escape character '!') matched against first and last
+	 * name, or null for no filter.
+	 */
+	@Query("SELECT e FROM Employee e "
+			+ "WHERE e.petStore.petStoreId = :petStoreId AND e.employeeId > :afterId "
+			+ "AND (:name IS NULL OR e.employeeFirstName LIKE :name ESCAPE '!' "
+			+ "OR e.employeeLastName LIKE :name ESCAPE '!') "
+			+ "ORDER BY e.employeeId")
+	List<Employee> findPageOrderById(Long petStoreId, Long afterId, String name, Limit limit);
+
+	/*
+	 * Keyset page of a store's employees in last name, then ID order. 
+	 * (afterLastName, afterId) is the last row of the previous page. 
+	 * NULL last names sort first, as they do by default in MySQL and H2.
+	 */
+	@Query("SELECT e FROM Employee e "
+			+ "WHERE e.petStore.petStoreId = :petStoreId "
+			+ "AND ((:afterLastName IS NULL AND (e.employeeLastName IS NOT NULL "
+			+ "OR e.employeeId > :afterId)) "
+			+ "OR e.employeeLastName > :afterLastName "
+			+ "OR (e.employeeLastName = :afterLastName AND e.employeeId > :afterId)) "
+			+ "AND (:name IS NULL OR e.employeeFirstName LIKE :name ESCAPE '!' "
+			+ "OR e.employeeLastName LIKE :name ESCAPE '!') "
+			+ "ORDER BY e.employeeLastName, e.employeeId")
+	List<Employee> findPageOrderByLastName(Long petStoreId, String afterLastName, Long afterId, 
+			String name, Limit limit);
 
+	/* Employees of any (not deleted) store whose last name starts with the prefix. */
+	default List<Employee> search(String lastName, Sort sort, Limit limit) {
+		Specification<Employee> filter = Specification
+				.where(SearchSpecifications.<Employee>startsWith("employeeLastName", lastName))
+				.and(SearchSpecifications.inLiveStore());
+		
+		return findBy(filter, query -> query.sortBy(sort).limit(limit.max()).all());
+	}
 }
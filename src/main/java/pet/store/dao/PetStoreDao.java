@@ -1,8 +1,61 @@
 package pet.store.dao;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import jakarta.persistence.QueryHint;
 import pet.store.entity.PetStore;
 
-public interface PetStoreDao extends JpaRepository<PetStore, Long> {
+public interface PetStoreDao extends JpaRepository<PetStore, Long>, 
+		JpaSpecificationExecutor<PetStore> {
+
+	/*
+	 * Rows pulled from the database per round trip when streaming. With
+	 * useCursorFetch=true on the MySQL URL this keeps the driver from
+	 * buffering the whole result set.
+	 */
+	String STREAM_FETCH_SIZE = "500";
+
+	/* Keyset (seek) page: the next "limit" store summaries after the given ID. */
+	@QueryHints(@QueryHint(name = AvailableHints.HINT_CACHEABLE, value = "true"))
+	List<PetStoreSummary> findByPetStoreIdGreaterThanOrderByPetStoreIdAsc(Long petStoreId, 
+			Limit limit);
+
+	/* All store summaries in ID order. Must be consumed inside a transaction and closed. */
+	@QueryHints(@QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+	Stream<PetStoreSummary> streamAllByOrderByPetStoreIdAsc();
+
+	/* Only the version (the start of the ETag) of a store: one primary key lookup. */
+	@Query("SELECT p.version FROM PetStore p WHERE p.petStoreId = :petStoreId")
+	Optional<Long> findVersionByPetStoreId(Long petStoreId);
+	
+	/* Store plus its employees in one query. */
+	@EntityGraph("PetStore.withEmployees")
+	Optional<PetStore> findWithEmployeesByPetStoreId(Long petStoreId);
+
+	/* Store plus its customers in one query. */
+	@EntityGraph("PetStore.withCustomers")
+	Optional<PetStore> findWithCustomersByPetStoreId(Long petStoreId);
 
+	/* Stores matching every given prefix. A blank prefix is no filter. */
+	default List<PetStore> search(String city, String state, String zip, Sort sort, 
+			Limit limit) {
+		Specification<PetStore> filter = Specification
+				.where(SearchSpecifications.<PetStore>startsWith("petStoreCity", city))
+				.and(SearchSpecifications.startsWith("petStoreState", state))
+				.and(SearchSpecifications.startsWith("petStoreZip", zip));
+		
+		return findBy(filter, query -> query.sortBy(sort).limit(limit.max()).all());
+	}
 }
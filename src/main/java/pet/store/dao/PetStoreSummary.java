@@ -0,0 +1,17 @@
+package pet.store.dao;
+
+/**************************************************************************
+ * Closed projection of the seven scalar columns of PetStore. Spring Data
+ * selects only these columns, so reading a summary never touches the 
+ * employee table or the pet_store_customer join table.
+ **************************************************************************/
+public interface PetStoreSummary {
+
+	Long getPetStoreId();
+	String getPetStoreName();
+	String getPetStoreAddress();
+	String getPetStoreCity();
+	String getPetStoreState();
+	String getPetStoreZip();
+	String getPetStorePhone();
+}
@@ -0,0 +1,60 @@
+package pet.store.dao;
+
+import java.util.Objects;
+
+import org.springframework.data.jpa.domain.Specification;
+
+/**************************************************************************
+ * Builds the WHERE clause of the search queries from only the filters 
+ * that were given. A fixed JPQL query with ":filter IS NULL OR ..." 
+ * terms keeps the database from using the column indexes, because the 
+ * plan has to cover the unbound case too.
+ **************************************************************************/
+public final class SearchSpecifications {
+
+	private SearchSpecifications() {
+	}
+
+	/*******************************************************************
+	 * prefixPattern() turns a user supplied prefix into a LIKE pattern.
+	 * '%' and '_' in the prefix match themselves ('!' is the escape
+	 * character). A blank prefix gives null, meaning no filter.
+	 *******************************************************************/
+	public static String prefixPattern(String prefix) {
+		if(Objects.isNull(prefix) || prefix.isBlank()) {
+			return null;
+		}
+		return prefix.trim()
+				.replace("!", "!!")
+				.replace("%", "!%")
+				.replace("_", "!_") + "%";
+	}
+
+	/*******************************************************************
+	 * startsWith() matches attribute against a prefix with LIKE 
+	 * 'prefix%', which MySQL turns into a range scan of the column index.
+	 * A range computed in Java (prefix up to the prefix with its last 
+	 * character incremented) would be compared in the column's collation,
+	 * where the incremented character need not sort last, so it could 
+	 * drop matching rows under utf8mb4_0900_ai_ci. A blank prefix gives 
+	 * null, which Specification.and() ignores.
+	 *******************************************************************/
+	static <T> Specification<T> startsWith(String attribute, String prefix) {
+		String pattern = prefixPattern(prefix);
+		
+		if(Objects.isNull(pattern)) {
+			return null;
+		}
+		
+		return (root, query, builder) -> builder.like(root.get(attribute), pattern, '!');
+	}
+
+	/*******************************************************************
+	 * inLiveStore() keeps only rows whose store (the to-one attribute
+	 * petStore) is not deleted. The store's SQL restriction does not
+	 * reach a join from the member's side.
+	 *******************************************************************/
+	static <T> Specification<T> inLiveStore() {
+		return (root, query, builder) -> builder.isNull(root.get("petStore").get("deletedAt"));
+	}
+}
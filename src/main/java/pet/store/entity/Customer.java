@@ -3,30 +3,51 @@ package pet.store.entity;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
+import jakarta.persistence.Column;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.ManyToMany;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 
 @Entity
 @Data
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "customer")
+// prefix searches of /pet_store/search; emails are unique, so a customer is one row
+@Table(indexes = {
+	@Index(name = "customer_email_ux", columnList = "customer_email", unique = true),
+	@Index(name = "customer_last_name_ix", columnList = "customer_last_name, customer_id")})
 public class Customer {
 
 	@Id
-	@GeneratedValue (strategy = GenerationType.IDENTITY)
+	@GeneratedValue (strategy = GenerationType.SEQUENCE, generator = "customer_seq")
+	@SequenceGenerator (name = "customer_seq", allocationSize = 50) // IDENTITY would disable JDBC insert batching
 	private Long customerId;
 	
 	private String customerFirstName;
 	private String customerLastName;
 	private String customerEmail;
 	
+	@Version
+	@Column(nullable = false)
+	private Long version;
+	
 	@EqualsAndHashCode.Exclude
 	@ToString.Exclude
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "customerPetStores")
 	@ManyToMany (mappedBy = "customers", cascade = CascadeType.PERSIST)  // java field name: customers in the PetScore class
 	private Set<PetStore> petStores = new HashSet<>();
 }
@@ -1,12 +1,22 @@
 package pet.store.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
+import jakarta.persistence.Column;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
@@ -14,9 +24,18 @@ import lombok.ToString;
 
 @Entity
 @Data
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "employee")
+// the first two serve the ID and last name ordered listings of one store, the third /pet_store/search
+@Table(indexes = {
+	@Index(name = "employee_store_ix", columnList = "pet_store_id, employee_id"),
+	@Index(name = "employee_store_last_name_ix", 
+		columnList = "pet_store_id, employee_last_name, employee_id"),
+	@Index(name = "employee_last_name_ix", columnList = "employee_last_name, employee_id")})
 public class Employee {
 	@Id
-	@GeneratedValue (strategy = GenerationType.IDENTITY)
+	@GeneratedValue (strategy = GenerationType.SEQUENCE, generator = "employee_seq")
+	@SequenceGenerator (name = "employee_seq", allocationSize = 50) // IDENTITY would disable JDBC insert batching
 	private Long employeeId;
 	
 	private String employeeFirstName;
@@ -24,9 +43,13 @@ public class Employee {
 	private String employeePhone;
 	private String employeeJobTitle;
 	
+	@Version
+	@Column(nullable = false)
+	private Long version;
+	
 	@EqualsAndHashCode.Exclude
 	@ToString.Exclude
-	@ManyToOne (cascade = CascadeType.ALL ) //java field name, employee in the PetScore class
+	@ManyToOne (cascade = CascadeType.ALL, fetch = FetchType.LAZY) //java field name, employee in the PetScore class
 	//@JoinColumn(name = "pet_store_id", nullable = false)
 	@JoinColumn(name = "pet_store_id")
 	private PetStore petStore;
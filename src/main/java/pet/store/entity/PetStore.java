@@ -1,17 +1,29 @@
 package pet.store.entity;
 
+import java.time.Instant;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.SQLRestriction;
+
+import jakarta.persistence.Cacheable;
+import jakarta.persistence.Column;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
 import jakarta.persistence.ManyToMany;
+import jakarta.persistence.NamedAttributeNode;
+import jakarta.persistence.NamedEntityGraph;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
@@ -19,6 +31,20 @@ import lombok.ToString;
 
 @Entity
 @Data
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "petStore")
+// a deleted store is only a tombstone until PetStorePurger removes it; no read sees it
+@SQLRestriction("deleted_at IS NULL")
+@NamedEntityGraph(name = "PetStore.withEmployees", 
+	attributeNodes = @NamedAttributeNode("employees"))
+@NamedEntityGraph(name = "PetStore.withCustomers", 
+	attributeNodes = @NamedAttributeNode("customers"))
+// prefix searches of /pet_store/search, and PetStorePurger's scan for tombstones
+@Table(indexes = {
+	@Index(name = "pet_store_city_ix", columnList = "pet_store_city, pet_store_id"),
+	@Index(name = "pet_store_state_ix", columnList = "pet_store_state, pet_store_id"),
+	@Index(name = "pet_store_zip_ix", columnList = "pet_store_zip, pet_store_id"),
+	@Index(name = "pet_store_deleted_at_ix", columnList = "deleted_at")})
 public class PetStore {
 	@Id
 	@GeneratedValue (strategy = GenerationType.IDENTITY)
@@ -31,17 +57,27 @@ public class PetStore {
 	private String petStoreZip;
 	private String petStorePhone;
 	
+	@Version
+	@Column(nullable = false)
+	private Long version;   // optimistic locking; also the start of the ETag of the petStore
+	
+	private Instant deletedAt;   // set by deletePetStoreById(); null for a live store
+	
 	@EqualsAndHashCode.Exclude
 	@ToString.Exclude
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "petStoreEmployees")
 	@OneToMany(mappedBy = "petStore", cascade = CascadeType.ALL, orphanRemoval = true) // petStore is from the Employee class
 	private Set<Employee> employees = new HashSet<>();
 	
 	@EqualsAndHashCode.Exclude
 	@ToString.Exclude
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "petStoreCustomers")
 	@ManyToMany (cascade = CascadeType.PERSIST)
 	@JoinTable(name = "pet_store_customer", 
 		joinColumns = @JoinColumn(name = "pet_store_id"), 
-		inverseJoinColumns = @JoinColumn(name = "customer_id"))
+		inverseJoinColumns = @JoinColumn(name = "customer_id"),
+		// the primary key covers (pet_store_id, customer_id); this covers lookups from the customer side
+		indexes = @Index(name = "pet_store_customer_customer_ix", columnList = "customer_id, pet_store_id"))
 	private Set<Customer> customers = new HashSet<>(); // "customers" variable has been used in pt.store.entity.Customer.java class
 		
 }
@@ -0,0 +1,26 @@
+package pet.store.metrics;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**************************************************************************
+ * Hooks SqlRequestMetrics into Hibernate. Service timers come from 
+ * @Timed through the aspect that Boot registers when 
+ * management.observations.annotations.enabled is true. Controller and 
+ * repository timers (http.server.requests and 
+ * spring.data.repository.invocations) and the Hikari pool metrics are 
+ * recorded by Boot itself.
+ **************************************************************************/
+@Configuration
+public class MetricsConfig {
+
+	@Bean
+	HibernatePropertiesCustomizer sqlRequestMetricsCustomizer(SqlRequestMetrics sqlRequestMetrics) {
+		return properties -> {
+			properties.put(AvailableSettings.STATEMENT_INSPECTOR, sqlRequestMetrics);
+			properties.put(AvailableSettings.INTERCEPTOR, sqlRequestMetrics);
+		};
+	}
+}
@@ -0,0 +1,105 @@
+package pet.store.metrics;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import org.hibernate.Interceptor;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.type.Type;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**************************************************************************
+ * Counts, per HTTP request, the SQL statements Hibernate sends and the 
+ * entity rows it loads, and records them as distribution summaries 
+ * tagged with the request's method and URI pattern:
+ *   pet.store.request.sql.statements
+ *   pet.store.request.entities.loaded
+ * 
+ * Hibernate calls this class as its StatementInspector and Interceptor
+ * (registered in MetricsConfig). The counters live in a thread local 
+ * that is set only while the filter is running. Work done on another 
+ * thread (the NDJSON stream) or outside a request is not counted.
+ **************************************************************************/
+@Component
+public class SqlRequestMetrics extends OncePerRequestFilter 
+		implements StatementInspector, Interceptor {
+
+	private static final class Counts {
+		private int statements;
+		private int entitiesLoaded;
+	}
+	
+	private static final ThreadLocal<Counts> CURRENT = new ThreadLocal<>();
+	
+	private final MeterRegistry registry;
+	
+	public SqlRequestMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+	
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+			FilterChain filterChain) throws ServletException, IOException {
+		
+		Counts counts = new Counts();
+		CURRENT.set(counts);
+		
+		try {
+			filterChain.doFilter(request, response);
+		}
+		finally {
+			CURRENT.remove();
+			record(request, counts);
+		}
+	}
+	
+	@Override
+	public String inspect(String sql) {
+		Counts counts = CURRENT.get();
+		
+		if(Objects.nonNull(counts)) {
+			counts.statements++;
+		}
+		return sql;
+	}
+	
+	@Override
+	public boolean onLoad(Object entity, Object id, Object[] state, String[] propertyNames, 
+			Type[] types) {
+		Counts counts = CURRENT.get();
+		
+		if(Objects.nonNull(counts)) {
+			counts.entitiesLoaded++;
+		}
+		return false;
+	}
+	
+	/******************************************************************/
+	private void record(HttpServletRequest request, Counts counts) {
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String uri = Objects.isNull(pattern) ? "UNKNOWN" : pattern.toString();
+		
+		DistributionSummary.builder("pet.store.request.sql.statements")
+				.description("SQL statements issued by one request")
+				.tag("method", request.getMethod())
+				.tag("uri", uri)
+				.register(registry)
+				.record(counts.statements);
+		
+		DistributionSummary.builder("pet.store.request.entities.loaded")
+				.description("Entity rows loaded by one request")
+				.tag("method", request.getMethod())
+				.tag("uri", uri)
+				.register(registry)
+				.record(counts.entitiesLoaded);
+	}
+}
@@ -0,0 +1,60 @@
+package pet.store.service;
+
+import java.util.Locale;
+import java.util.Objects;
+
+import org.springframework.http.MediaType;
+
+/**************************************************************************
+ * Format of the bulk export and import files. Comes from the ?format= 
+ * query parameter, or from the file name for the import runner.
+ **************************************************************************/
+public enum ExportFormat {
+	CSV(new MediaType("text", "csv"), "csv"), 
+	NDJSON(MediaType.APPLICATION_NDJSON, "ndjson");
+	
+	private final MediaType mediaType;
+	private final String extension;
+	
+	ExportFormat(MediaType mediaType, String extension) {
+		this.mediaType = mediaType;
+		this.extension = extension;
+	}
+	
+	public MediaType getMediaType() {
+		return mediaType;
+	}
+	
+	public String getExtension() {
+		return extension;
+	}
+	
+	/*******************************************************************
+	 * fromParameter() maps the query parameter (case insensitive) to a
+	 * format. A missing parameter means NDJSON.
+	 *******************************************************************/
+	public static ExportFormat fromParameter(String format) {
+		if(Objects.isNull(format) || format.isBlank()) {
+			return NDJSON;
+		}
+		try {
+			return valueOf(format.trim().toUpperCase(Locale.ROOT));
+		}
+		catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException("Export format " + format + " is NOT valid.");
+		}
+	}
+	
+	/*******************************************************************
+	 * fromFileName() takes the format from the extension, ignoring a 
+	 * trailing .gz.
+	 *******************************************************************/
+	public static ExportFormat fromFileName(String fileName) {
+		String name = fileName.toLowerCase(Locale.ROOT);
+		
+		if(name.endsWith(".gz")) {
+			name = name.substring(0, name.length() - 3);
+		}
+		return fromParameter(name.substring(name.lastIndexOf('.') + 1));
+	}
+}
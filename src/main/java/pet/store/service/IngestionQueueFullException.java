@@ -0,0 +1,14 @@
+package pet.store.service;
+
+/**************************************************************************
+ * The write-behind queue is full. The controller error handler turns it
+ * into 429 Too Many Requests so the client backs off and retries.
+ **************************************************************************/
+public class IngestionQueueFullException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public IngestionQueueFullException(String message) {
+		super(message);
+	}
+}
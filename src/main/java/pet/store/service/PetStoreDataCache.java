@@ -0,0 +1,184 @@
+package pet.store.service;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import pet.store.controller.model.PetStoreData;
+
+/**************************************************************************
+ * Bounded cache of fully built PetStoreData snapshots, keyed by 
+ * petStoreId and include. Caffeine evicts with W-TinyLFU once 
+ * maximum-size is reached.
+ * 
+ * A miss is loaded on the calling thread, and concurrent misses for the
+ * same key wait for that one load instead of starting their own. The 
+ * load runs outside any map lock, so a slow query for one store never 
+ * blocks another.
+ * 
+ * Every caller gets its own deep copy of the cached snapshot, members
+ * included, so a caller that changes what it got changes nothing for
+ * the next reader.
+ **************************************************************************/
+@Component
+public class PetStoreDataCache {
+
+	private record Key(Long petStoreId, PetStoreInclude include) {}
+	
+	private final AsyncCache<Key, PetStoreData> cache;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final Timer loadTimer;
+	
+	public PetStoreDataCache(
+			@Value("${pet-store.data-cache.maximum-size:10000}") long maximumSize,
+			@Value("${pet-store.data-cache.expire-after-write:10m}") Duration expireAfterWrite,
+			MeterRegistry registry) {
+		
+		cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats()
+				.buildAsync();
+		
+		loadTimer = Timer.builder("pet.store.data.cache.load")
+				.description("Time to build a PetStoreData snapshot on a cache miss")
+				.register(registry);
+		
+		FunctionCounter.builder("pet.store.data.cache.requests", hits, LongAdder::sum)
+				.tag("result", "hit").register(registry);
+		FunctionCounter.builder("pet.store.data.cache.requests", misses, LongAdder::sum)
+				.tag("result", "miss").register(registry);
+		FunctionCounter.builder("pet.store.data.cache.evictions", cache, 
+				c -> c.synchronous().stats().evictionCount()).register(registry);
+		Gauge.builder("pet.store.data.cache.hit.ratio", this, PetStoreDataCache::hitRatio)
+				.register(registry);
+		Gauge.builder("pet.store.data.cache.size", cache, c -> c.synchronous().estimatedSize())
+				.register(registry);
+	}
+	
+	/*******************************************************************
+	 * get() returns a copy of the cached snapshot, or runs the loader 
+	 * once and caches its result. A loader exception is not cached; it is thrown
+	 * to the loading caller, and every caller waiting on that load runs
+	 * the loader itself.
+	 *     A failed load completes with null rather than exceptionally:
+	 * Caffeine drops a null value silently but logs every exceptional
+	 * completion at WARN, which would be a log line per 404.
+	 *******************************************************************/
+	public PetStoreData get(Long petStoreId, PetStoreInclude include, 
+			Supplier<PetStoreData> loader) {
+		
+		Key key = new Key(petStoreId, include);
+		
+		while(true) {
+			CompletableFuture<PetStoreData> loading = new CompletableFuture<>();
+			CompletableFuture<PetStoreData> cached = cache.asMap().putIfAbsent(key, loading);
+			
+			if(Objects.nonNull(cached)) {
+				PetStoreData snapshot = await(cached);
+				
+				if(Objects.nonNull(snapshot)) {
+					hits.increment();
+					return new PetStoreData(snapshot);
+				}
+				continue;
+			}
+			
+			misses.increment();
+			long start = System.nanoTime();
+			
+			try {
+				PetStoreData snapshot = loader.get();
+				loading.complete(snapshot);
+				return new PetStoreData(snapshot);
+			}
+			catch(RuntimeException e) {
+				cache.asMap().remove(key, loading);
+				loading.complete(null);
+				throw e;
+			}
+			finally {
+				loadTimer.record(Duration.ofNanos(System.nanoTime() - start));
+			}
+		}
+	}
+	
+	/*******************************************************************
+	 * invalidateAfterCommit() drops every snapshot of the petStore once
+	 * the current transaction commits (at once outside a transaction).
+	 * Until then the cached snapshot is still the committed state, and a
+	 * rollback leaves it cached. A load still running at the commit is
+	 * dropped with it: its result never reaches the cache.
+	 *******************************************************************/
+	public void invalidateAfterCommit(Long petStoreId) {
+		runAfterCommit(() -> invalidate(petStoreId));
+	}
+	
+	/*******************************************************************
+	 * invalidateCustomersAfterCommit() drops every snapshot that lists
+	 * customers. A customer can belong to any number of stores, so an 
+	 * update to an existing customer may be in any of them.
+	 *******************************************************************/
+	public void invalidateCustomersAfterCommit() {
+		runAfterCommit(() -> 
+			cache.synchronous().asMap().keySet().removeIf(key -> key.include().includesCustomers()));
+	}
+	
+	/******************************************************************/
+	public void invalidate(Long petStoreId) {
+		for(PetStoreInclude include : PetStoreInclude.values()) {
+			cache.synchronous().invalidate(new Key(petStoreId, include));
+		}
+	}
+	
+	/******************************************************************/
+	private void runAfterCommit(Runnable invalidation) {
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			invalidation.run();
+			return;
+		}
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				invalidation.run();
+			}
+		});
+	}
+	
+	/******************************************************************/
+	private PetStoreData await(CompletableFuture<PetStoreData> future) {
+		try {
+			return future.join();
+		}
+		catch(CompletionException e) {
+			if(e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+	
+	/******************************************************************/
+	private double hitRatio() {
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+		return total == 0 ? 0.0 : (double)hitCount / total;
+	}
+}
@@ -0,0 +1,271 @@
+package pet.store.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**************************************************************************
+ * Bulk export of every petStore with its employees and customers, for 
+ * reporting. Three forward-only cursors, each sorted by pet_store_id, are
+ * walked side by side (a merge join), and every row is written out as 
+ * soon as it is read. Nothing is collected, so memory stays constant no
+ * matter how many rows there are.
+ * 
+ * The cursors share one read-only REPEATABLE READ transaction, so they 
+ * see a single snapshot. On MySQL that is a consistent non-locking read:
+ * writers are not blocked. With replicas on, it runs on a replica.
+ * 
+ * NDJSON is one line per petStore with the field names of PetStoreData
+ * and nested employees and customers arrays. CSV is one line per row, 
+ * with a type column of store, employee or customer; each store line is
+ * followed by its employee and customer lines.
+ **************************************************************************/
+@Component
+public class PetStoreExporter {
+
+	private static final String STORES_SQL = "SELECT pet_store_id, pet_store_name, "
+			+ "pet_store_address, pet_store_city, pet_store_state, pet_store_zip, pet_store_phone "
+			+ "FROM pet_store WHERE deleted_at IS NULL ORDER BY pet_store_id";
+	
+	private static final String EMPLOYEES_SQL = "SELECT pet_store_id, employee_id, "
+			+ "employee_first_name, employee_last_name, employee_phone, employee_job_title "
+			+ "FROM employee WHERE pet_store_id IS NOT NULL ORDER BY pet_store_id, employee_id";
+	
+	private static final String CUSTOMERS_SQL = "SELECT pc.pet_store_id, c.customer_id, "
+			+ "c.customer_first_name, c.customer_last_name, c.customer_email "
+			+ "FROM pet_store_customer pc JOIN customer c ON c.customer_id = pc.customer_id "
+			+ "ORDER BY pc.pet_store_id, pc.customer_id";
+	
+	private static final String CSV_HEADER = "type,pet_store_id,id,name,address,city,state,zip,"
+			+ "phone,first_name,last_name,job_title,email\n";
+	
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	
+	@Autowired
+	private ObjectMapper objectMapper;
+	
+	private final TransactionTemplate exportTransactionTemplate;
+	private final int fetchSize;
+	
+	public PetStoreExporter(PlatformTransactionManager transactionManager,
+			@Value("${pet-store.export.fetch-size:1000}") int fetchSize) {
+		exportTransactionTemplate = new TransactionTemplate(transactionManager);
+		exportTransactionTemplate.setReadOnly(true);
+		exportTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+		this.fetchSize = fetchSize;
+	}
+	
+	/*******************************************************************
+	 * export() writes everything to outputStream and flushes it; the 
+	 * caller closes it. It returns the number of rows written.
+	 *******************************************************************/
+	public long export(ExportFormat format, OutputStream outputStream) {
+		return exportTransactionTemplate.execute(status -> 
+			jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+				try(PreparedStatement stores = prepare(connection, STORES_SQL);
+					PreparedStatement employees = prepare(connection, EMPLOYEES_SQL);
+					PreparedStatement customers = prepare(connection, CUSTOMERS_SQL);
+					ResultSet storeRows = stores.executeQuery();
+					ResultSet employeeRows = employees.executeQuery();
+					ResultSet customerRows = customers.executeQuery()) {
+					
+					return format == ExportFormat.CSV 
+							? writeCsv(storeRows, new Members(employeeRows), 
+									new Members(customerRows), outputStream)
+							: writeNdjson(storeRows, new Members(employeeRows), 
+									new Members(customerRows), outputStream);
+				}
+				catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}));
+	}
+	
+	/******************************************************************/
+	private PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql, 
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(fetchSize);
+		return statement;
+	}
+	
+	/*******************************************************************
+	 * One of the member cursors. storeId is the pet_store_id of the 
+	 * current row, or Long.MAX_VALUE once the cursor is used up.
+	 *******************************************************************/
+	private static final class Members {
+		
+		private final ResultSet rows;
+		private long storeId;
+		
+		Members(ResultSet rows) throws SQLException {
+			this.rows = rows;
+			next();
+		}
+		
+		void next() throws SQLException {
+			storeId = rows.next() ? rows.getLong(1) : Long.MAX_VALUE;
+		}
+		
+		/* Moves past rows of stores before storeId: deleted stores not purged yet. */
+		boolean at(long petStoreId) throws SQLException {
+			while(storeId < petStoreId) {
+				next();
+			}
+			return storeId == petStoreId;
+		}
+	}
+	
+	/******************************************************************/
+	private long writeNdjson(ResultSet stores, Members employees, Members customers, 
+			OutputStream outputStream) throws SQLException, IOException {
+		long rows = 0;
+		
+		try(JsonGenerator json = objectMapper.getFactory().createGenerator(outputStream)) {
+			json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			json.setRootValueSeparator(null);
+			
+			while(stores.next()) {
+				long petStoreId = stores.getLong(1);
+				
+				json.writeStartObject();
+				json.writeNumberField("petStoreId", petStoreId);
+				json.writeStringField("petStoreName", stores.getString(2));
+				json.writeStringField("petStoreAddress", stores.getString(3));
+				json.writeStringField("petStoreCity", stores.getString(4));
+				json.writeStringField("petStoreState", stores.getString(5));
+				json.writeStringField("petStoreZip", stores.getString(6));
+				json.writeStringField("petStorePhone", stores.getString(7));
+				
+				json.writeArrayFieldStart("employees");
+				for(ResultSet e = employees.rows; employees.at(petStoreId); employees.next()) {
+					json.writeStartObject();
+					json.writeNumberField("employeeId", e.getLong(2));
+					json.writeStringField("employeeFirstName", e.getString(3));
+					json.writeStringField("employeeLastName", e.getString(4));
+					json.writeStringField("employeePhone", e.getString(5));
+					json.writeStringField("employeeJobTitle", e.getString(6));
+					json.writeEndObject();
+					rows++;
+				}
+				json.writeEndArray();
+				
+				json.writeArrayFieldStart("customers");
+				for(ResultSet c = customers.rows; customers.at(petStoreId); customers.next()) {
+					json.writeStartObject();
+					json.writeNumberField("customerId", c.getLong(2));
+					json.writeStringField("customerFirstName", c.getString(3));
+					json.writeStringField("customerLastName", c.getString(4));
+					json.writeStringField("customerEmail", c.getString(5));
+					json.writeEndObject();
+					rows++;
+				}
+				json.writeEndArray();
+				
+				json.writeEndObject();
+				json.writeRaw('\n');
+				rows++;
+			}
+		}
+		
+		outputStream.flush();
+		return rows;
+	}
+	
+	/******************************************************************/
+	private long writeCsv(ResultSet stores, Members employees, Members customers, 
+			OutputStream outputStream) throws SQLException, IOException {
+		long rows = 0;
+		Writer csv = new BufferedWriter(new OutputStreamWriter(outputStream, 
+				StandardCharsets.UTF_8), 64 * 1024);
+		
+		csv.write(CSV_HEADER);
+		
+		while(stores.next()) {
+			long petStoreId = stores.getLong(1);
+			String storeId = Long.toString(petStoreId);
+			
+			csvRow(csv, "store", storeId, "", stores.getString(2), stores.getString(3), 
+					stores.getString(4), stores.getString(5), stores.getString(6), 
+					stores.getString(7), null, null, null, null);
+			rows++;
+			
+			for(ResultSet e = employees.rows; employees.at(petStoreId); employees.next()) {
+				csvRow(csv, "employee", storeId, Long.toString(e.getLong(2)), null, null, null, 
+						null, null, e.getString(5), e.getString(3), e.getString(4), 
+						e.getString(6), null);
+				rows++;
+			}
+			
+			for(ResultSet c = customers.rows; customers.at(petStoreId); customers.next()) {
+				csvRow(csv, "customer", storeId, Long.toString(c.getLong(2)), null, null, null, 
+						null, null, null, c.getString(3), c.getString(4), null, c.getString(5));
+				rows++;
+			}
+		}
+		
+		csv.flush();
+		return rows;
+	}
+	
+	/*******************************************************************
+	 * csvRow() writes one RFC 4180 line. Null is an empty field; a 
+	 * field with a comma, quote or line break is quoted.
+	 *******************************************************************/
+	private static void csvRow(Writer csv, String... fields) throws IOException {
+		for(int i = 0; i < fields.length; i++) {
+			if(i > 0) {
+				csv.write(',');
+			}
+			
+			String field = fields[i];
+			
+			if(field == null) {
+				continue;
+			}
+			
+			if(needsQuotes(field)) {
+				csv.write('"');
+				csv.write(field.replace("\"", "\"\""));
+				csv.write('"');
+			}
+			else {
+				csv.write(field);
+			}
+		}
+		csv.write('\n');
+	}
+	
+	/******************************************************************/
+	private static boolean needsQuotes(String field) {
+		for(int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			
+			if(c == ',' || c == '"' || c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,926 @@
+package pet.store.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import pet.store.controller.model.ImportReport;
+import pet.store.controller.model.PetStoreBatchResult.RowFailure;
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreCustomer;
+import pet.store.controller.model.PetStoreData.PetStoreEmployee;
+import pet.store.entity.Customer;
+import pet.store.entity.Employee;
+import pet.store.entity.PetStore;
+
+/**************************************************************************
+ * Bulk import of the files PetStoreExporter writes, for seeding a region.
+ * Three stages run on their own threads, joined by bounded queues so a
+ * slow stage holds the others back instead of piling up rows:
+ *
+ *  - parse (the calling thread) reads the input incrementally, one CSV
+ *    record or NDJSON line at a time, and cuts it into chunks of about
+ *    batch-size rows, always just before a store;
+ *  - validate checks IDs, field lengths, that members follow their
+ *    store and that the store is not deleted, and sets rejected records
+ *    aside;
+ *  - write upserts each chunk by ID in one transaction with JDBC batches.
+ *
+ * IDs are kept, so importing the same file twice changes nothing but
+ * versions. After each commit the last committed record is reported as
+ * the checkpoint; an import resumed after it skips what is already in.
+ * When the import ends the employee and customer sequences (and H2's
+ * pet_store identity) are moved past the imported IDs. That does not
+ * reach the block of IDs a running instance's pooled optimizer already
+ * took from a sequence: it hands out the rest of that block from memory,
+ * and an ID in it that was imported fails the insert with a duplicate 
+ * key (409) until the block is used up. The startup import 
+ * (PetStoreImportRunner) runs before anything is created, so it is safe;
+ * after an import into a live region, restart the instances.
+ **************************************************************************/
+@Slf4j
+@Component
+public class PetStoreImporter {
+
+	private static final String STORE_UPSERT = "INSERT INTO pet_store (pet_store_id, "
+			+ "pet_store_name, pet_store_address, pet_store_city, pet_store_state, pet_store_zip, "
+			+ "pet_store_phone, version) VALUES (?, ?, ?, ?, ?, ?, ?, 0) ON DUPLICATE KEY UPDATE "
+			+ "pet_store_name = VALUES(pet_store_name), pet_store_address = VALUES(pet_store_address), "
+			+ "pet_store_city = VALUES(pet_store_city), pet_store_state = VALUES(pet_store_state), "
+			+ "pet_store_zip = VALUES(pet_store_zip), pet_store_phone = VALUES(pet_store_phone), "
+			+ "version = version + 1";
+
+	private static final String EMPLOYEE_UPSERT = "INSERT INTO employee (employee_id, "
+			+ "pet_store_id, employee_first_name, employee_last_name, employee_phone, "
+			+ "employee_job_title, version) VALUES (?, ?, ?, ?, ?, ?, 0) ON DUPLICATE KEY UPDATE "
+			+ "pet_store_id = VALUES(pet_store_id), employee_first_name = VALUES(employee_first_name), "
+			+ "employee_last_name = VALUES(employee_last_name), employee_phone = VALUES(employee_phone), "
+			+ "employee_job_title = VALUES(employee_job_title), version = version + 1";
+
+	private static final String CUSTOMER_UPSERT = "INSERT INTO customer (customer_id, "
+			+ "customer_first_name, customer_last_name, customer_email, version) "
+			+ "VALUES (?, ?, ?, ?, 0) ON DUPLICATE KEY UPDATE "
+			+ "customer_first_name = VALUES(customer_first_name), "
+			+ "customer_last_name = VALUES(customer_last_name), "
+			+ "customer_email = VALUES(customer_email), version = version + 1";
+
+	private static final String LINK_INSERT = "INSERT INTO pet_store_customer (pet_store_id, "
+			+ "customer_id) VALUES (?, ?) ON DUPLICATE KEY UPDATE customer_id = customer_id";
+
+	private static final String PET_STORE_EMPLOYEES = PetStore.class.getName() + ".employees";
+	private static final String PET_STORE_CUSTOMERS = PetStore.class.getName() + ".customers";
+	private static final String CUSTOMER_PET_STORES = Customer.class.getName() + ".petStores";
+
+	/* allocationSize of the employee and customer sequence generators */
+	private static final int ID_ALLOCATION = 50;
+	private static final int MAX_FIELD_LENGTH = 255;
+	private static final long POLL_MILLIS = 100;
+
+	private sealed interface Row permits StoreRow, EmployeeRow, CustomerRow, RejectedRow {
+		long record();
+	}
+
+	private record StoreRow(long record, Long petStoreId, String name, String address,
+			String city, String state, String zip, String phone) implements Row {}
+
+	private record EmployeeRow(long record, Long petStoreId, Long employeeId, String firstName,
+			String lastName, String phone, String jobTitle) implements Row {}
+
+	private record CustomerRow(long record, Long petStoreId, Long customerId, String firstName,
+			String lastName, String email) implements Row {}
+
+	private record RejectedRow(long record, String message) implements Row {}
+
+	private record CustomerLink(Long petStoreId, Long customerId) {}
+
+	/* The rows of whole records, up to and including lastRecord. */
+	private record Chunk(List<Row> rows, List<RowFailure> failures, long lastRecord) {}
+
+	private static final Chunk END = new Chunk(List.of(), List.of(), -1);
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private PetStoreDataCache petStoreDataCache;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private final TransactionTemplate transactionTemplate;
+	private final int batchSize;
+	private final int queueCapacity;
+	private final int maxFailures;
+	private final Duration progressInterval;
+
+	private NamedParameterJdbcTemplate namedJdbcTemplate;
+	private ObjectReader petStoreReader;
+
+	public PetStoreImporter(PlatformTransactionManager transactionManager,
+			@Value("${pet-store.import.batch-size:1000}") int batchSize,
+			@Value("${pet-store.import.queue-capacity:4}") int queueCapacity,
+			@Value("${pet-store.import.max-failures:100}") int maxFailures,
+			@Value("${pet-store.import.progress-interval:10s}") Duration progressInterval) {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		this.batchSize = batchSize;
+		this.queueCapacity = queueCapacity;
+		this.maxFailures = maxFailures;
+		this.progressInterval = progressInterval;
+	}
+
+	@PostConstruct
+	private void createJdbcHelpers() {
+		namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+		petStoreReader = objectMapper.readerFor(PetStoreData.class);
+	}
+
+	/*******************************************************************
+	 * importRecords() reads inputStream to the end (the caller closes
+	 * it), skipping records up to resumeAfter. checkpoint is called
+	 * with the last record of each committed chunk.
+	 *******************************************************************/
+	public ImportReport importRecords(InputStream inputStream, ExportFormat format,
+			long resumeAfter, LongConsumer checkpoint) {
+		return new ImportRun(resumeAfter, checkpoint).execute(inputStream, format);
+	}
+
+	/*******************************************************************
+	 * State of one import, shared by its three stages. The first stage
+	 * to fail records the error in failure; the others see it at their
+	 * next queue operation and stop.
+	 *******************************************************************/
+	private final class ImportRun {
+
+		private final long resumeAfter;
+		private final LongConsumer checkpoint;
+		private final BlockingQueue<Chunk> parsed = new ArrayBlockingQueue<>(queueCapacity);
+		private final BlockingQueue<Chunk> validated = new ArrayBlockingQueue<>(queueCapacity);
+		private final AtomicReference<Exception> failure = new AtomicReference<>();
+		private final ImportReport report = new ImportReport();
+		private final long started = System.nanoTime();
+
+		private List<Row> pending = new ArrayList<>();
+		private long pendingLastRecord;
+		private long recordsRead;
+		private long nextProgress;
+
+		ImportRun(long resumeAfter, LongConsumer checkpoint) {
+			this.resumeAfter = resumeAfter;
+			this.checkpoint = checkpoint;
+			report.setCheckpoint(resumeAfter);
+			nextProgress = started + progressInterval.toNanos();
+		}
+
+		ImportReport execute(InputStream inputStream, ExportFormat format) {
+			Thread validator = Thread.ofPlatform().name("pet-store-import-validate")
+					.start(() -> stage(this::validate));
+			Thread writer = Thread.ofPlatform().name("pet-store-import-write")
+					.start(() -> stage(this::write));
+
+			stage(() -> parse(new InputStreamReader(inputStream, StandardCharsets.UTF_8), format));
+
+			try {
+				validator.join();
+				writer.join();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, e);
+			}
+
+			advanceIdGenerators();
+
+			long elapsedMillis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+			long rows = report.getStores() + report.getEmployees() + report.getCustomers();
+			Exception error = failure.get();
+
+			report.setCompleted(Objects.isNull(error));
+			report.setMessage(Objects.isNull(error) ? null : error.toString());
+			report.setElapsedMillis(elapsedMillis);
+			report.setRowsPerSecond(rows * 1000 / elapsedMillis);
+
+			log.info("Import {} after {} ms: {} records, {} rows ({} rows/s), {} rejected, checkpoint {}.",
+					report.isCompleted() ? "completed" : "FAILED", elapsedMillis, report.getRecords(),
+					rows, report.getRowsPerSecond(), report.getRejected(), report.getCheckpoint());
+			return report;
+		}
+
+		/******************************************************************/
+		private void stage(Stage body) {
+			try {
+				body.run();
+			}
+			catch(ImportAbortedException e) {
+				// another stage failed first
+			}
+			catch(Exception e) {
+				if(failure.compareAndSet(null, e)) {
+					log.warn("Import stage {} failed: {}", Thread.currentThread().getName(), e.toString());
+				}
+			}
+		}
+
+		/*******************************************************************
+		 * parse() turns the input into rows. A record that cannot be read
+		 * becomes a RejectedRow, so its number shows up in the report.
+		 *******************************************************************/
+		private void parse(Reader reader, ExportFormat format) throws IOException {
+			try {
+				if(format == ExportFormat.CSV) {
+					parseCsv(new CsvRecordReader(reader));
+				}
+				else {
+					parseNdjson(new BufferedReader(reader, 64 * 1024));
+				}
+			}
+			finally {
+				// also when the input broke off: the records read until then
+				report.setRecords(recordsRead);
+			}
+
+			flush();
+			put(parsed, END);
+		}
+
+		/******************************************************************/
+		private void parseCsv(CsvRecordReader csv) throws IOException {
+			List<String> header = csv.next();
+
+			if(Objects.isNull(header)) {
+				return;
+			}
+
+			Map<String, Integer> columns = new HashMap<>();
+
+			for(int i = 0; i < header.size(); i++) {
+				columns.put(Objects.requireNonNullElse(header.get(i), "").trim(), i);
+			}
+			if(!columns.keySet().containsAll(List.of("type", "pet_store_id", "id"))) {
+				throw new IllegalArgumentException(
+						"The CSV header must have type, pet_store_id and id columns.");
+			}
+
+			long record = 0;
+
+			for(List<String> fields = csv.next(); Objects.nonNull(fields); fields = csv.next()) {
+				if(++record <= resumeAfter || (fields.size() == 1 && Objects.isNull(fields.get(0)))) {
+					continue;
+				}
+				recordsRead++;
+
+				String type = field(fields, columns, "type");
+
+				try {
+					Long petStoreId = id(field(fields, columns, "pet_store_id"));
+					Long id = id(field(fields, columns, "id"));
+
+					switch(Objects.requireNonNullElse(type, "")) {
+					case "store" -> add(new StoreRow(record, petStoreId,
+							field(fields, columns, "name"), field(fields, columns, "address"),
+							field(fields, columns, "city"), field(fields, columns, "state"),
+							field(fields, columns, "zip"), field(fields, columns, "phone")), true);
+					case "employee" -> add(new EmployeeRow(record, petStoreId, id,
+							field(fields, columns, "first_name"), field(fields, columns, "last_name"),
+							field(fields, columns, "phone"), field(fields, columns, "job_title")), false);
+					case "customer" -> add(new CustomerRow(record, petStoreId, id,
+							field(fields, columns, "first_name"), field(fields, columns, "last_name"),
+							field(fields, columns, "email")), false);
+					default -> add(new RejectedRow(record, "Row type " + type + " is NOT valid."), false);
+					}
+				}
+				catch(NumberFormatException e) {
+					add(new RejectedRow(record, "A pet_store_id or id is NOT a number."),
+							"store".equals(type));
+				}
+			}
+		}
+
+		/******************************************************************/
+		private void parseNdjson(BufferedReader lines) throws IOException {
+			long record = 0;
+
+			for(String line = lines.readLine(); Objects.nonNull(line); line = lines.readLine()) {
+				if(++record <= resumeAfter || line.isBlank()) {
+					continue;
+				}
+				recordsRead++;
+
+				PetStoreData petStoreData;
+
+				try {
+					petStoreData = petStoreReader.readValue(line);
+				}
+				catch(JsonProcessingException e) {
+					add(new RejectedRow(record, "Invalid JSON: " + e.getOriginalMessage()), true);
+					continue;
+				}
+
+				Long petStoreId = petStoreData.getPetStoreId();
+
+				add(new StoreRow(record, petStoreId, petStoreData.getPetStoreName(),
+						petStoreData.getPetStoreAddress(), petStoreData.getPetStoreCity(),
+						petStoreData.getPetStoreState(), petStoreData.getPetStoreZip(),
+						petStoreData.getPetStorePhone()), true);
+
+				for(PetStoreEmployee employee : petStoreData.getEmployees()) {
+					add(new EmployeeRow(record, petStoreId, employee.getEmployeeId(),
+							employee.getEmployeeFirstName(), employee.getEmployeeLastName(),
+							employee.getEmployeePhone(), employee.getEmployeeJobTitle()), false);
+				}
+				for(PetStoreCustomer customer : petStoreData.getCustomers()) {
+					add(new CustomerRow(record, petStoreId, customer.getCustomerId(),
+							customer.getCustomerFirstName(), customer.getCustomerLastName(),
+							customer.getCustomerEmail()), false);
+				}
+			}
+		}
+
+		/*******************************************************************
+		 * add() appends a row to the chunk being built. A full chunk is
+		 * only handed on before a store row, so a store and its members
+		 * always commit together and every checkpoint ends a store.
+		 *******************************************************************/
+		private void add(Row row, boolean startsStore) {
+			if(startsStore && pending.size() >= batchSize) {
+				flush();
+			}
+			pending.add(row);
+			pendingLastRecord = row.record();
+		}
+
+		/******************************************************************/
+		private void flush() {
+			if(!pending.isEmpty()) {
+				put(parsed, new Chunk(pending, List.of(), pendingLastRecord));
+				pending = new ArrayList<>(batchSize);
+			}
+		}
+
+		/*******************************************************************
+		 * validate() passes on the rows that can be written and turns the
+		 * rest into failures. Members of a rejected store are rejected
+		 * too.
+		 *******************************************************************/
+		private void validate() {
+			Long currentStoreId = null;
+
+			for(Chunk chunk = take(parsed); chunk != END; chunk = take(parsed)) {
+				List<Row> rows = new ArrayList<>(chunk.rows().size());
+				List<RowFailure> failures = new ArrayList<>();
+				Set<Long> deletedStoreIds = deletedStoreIds(chunk.rows());
+
+				for(Row row : chunk.rows()) {
+					String problem = row instanceof StoreRow store 
+							&& deletedStoreIds.contains(store.petStoreId())
+							? "PetStore with ID=" + store.petStoreId() + " is being deleted."
+							: problemOf(row, currentStoreId);
+
+					if(row instanceof StoreRow store) {
+						currentStoreId = Objects.isNull(problem) ? store.petStoreId() : null;
+					}
+
+					if(Objects.isNull(problem)) {
+						rows.add(row);
+					}
+					else {
+						failures.add(new RowFailure((int)row.record(), problem));
+					}
+				}
+				put(validated, new Chunk(rows, failures, chunk.lastRecord()));
+			}
+			put(validated, END);
+		}
+
+		/*******************************************************************
+		 * deletedStoreIds() are the chunk's stores that carry a tombstone.
+		 * Their rows would only be removed again by PetStorePurger.
+		 *******************************************************************/
+		private Set<Long> deletedStoreIds(List<Row> rows) {
+			Set<Long> storeIds = new HashSet<>();
+
+			for(Row row : rows) {
+				if(row instanceof StoreRow store && Objects.nonNull(store.petStoreId())) {
+					storeIds.add(store.petStoreId());
+				}
+			}
+
+			if(storeIds.isEmpty()) {
+				return storeIds;
+			}
+			return new HashSet<>(namedJdbcTemplate.queryForList("SELECT pet_store_id FROM pet_store "
+					+ "WHERE pet_store_id IN (:ids) AND deleted_at IS NOT NULL",
+					Map.of("ids", storeIds), Long.class));
+		}
+
+		/******************************************************************/
+		private String problemOf(Row row, Long currentStoreId) {
+			return switch(row) {
+			case RejectedRow rejected -> rejected.message();
+			case StoreRow store -> Objects.isNull(store.petStoreId()) || store.petStoreId() <= 0
+					? "A store row needs a pet_store_id."
+					: tooLong(store.name(), store.address(), store.city(), store.state(),
+							store.zip(), store.phone());
+			case EmployeeRow employee -> Objects.isNull(employee.employeeId())
+					? "An employee row needs an id."
+					: !Objects.equals(employee.petStoreId(), currentStoreId)
+					? "An employee row must follow the row of its (valid) store."
+					: tooLong(employee.firstName(), employee.lastName(), employee.phone(),
+							employee.jobTitle());
+			case CustomerRow customer -> Objects.isNull(customer.customerId())
+					? "A customer row needs an id."
+					: !Objects.equals(customer.petStoreId(), currentStoreId)
+					? "A customer row must follow the row of its (valid) store."
+					: tooLong(customer.firstName(), customer.lastName(), customer.email());
+			};
+		}
+
+		/*******************************************************************
+		 * write() commits one chunk per transaction, then reports its
+		 * last record as the checkpoint.
+		 *******************************************************************/
+		private void write() {
+			for(Chunk chunk = take(validated); chunk != END; chunk = take(validated)) {
+				List<Row> rows = chunk.rows();
+				
+				if(!rows.isEmpty()) {
+					transactionTemplate.executeWithoutResult(status -> upsert(rows));
+				}
+
+				for(Row row : rows) {
+					switch(row) {
+					case StoreRow store -> report.setStores(report.getStores() + 1);
+					case EmployeeRow employee -> report.setEmployees(report.getEmployees() + 1);
+					case CustomerRow customer -> report.setCustomers(report.getCustomers() + 1);
+					case RejectedRow rejected -> { }
+					}
+				}
+
+				report.setRejected(report.getRejected() + chunk.failures().size());
+
+				for(RowFailure failure : chunk.failures()) {
+					if(report.getFailures().size() < maxFailures) {
+						report.getFailures().add(failure);
+					}
+				}
+
+				report.setCheckpoint(chunk.lastRecord());
+				checkpoint.accept(chunk.lastRecord());
+				logProgress();
+			}
+		}
+
+		/******************************************************************/
+		private void logProgress() {
+			long now = System.nanoTime();
+
+			if(now >= nextProgress) {
+				long rows = report.getStores() + report.getEmployees() + report.getCustomers();
+				long elapsedMillis = Math.max(1, (now - started) / 1_000_000);
+
+				log.info("Import progress: {} rows in {} s ({} rows/s), {} rejected, checkpoint {}.",
+						rows, elapsedMillis / 1000, rows * 1000 / elapsedMillis, report.getRejected(),
+						report.getCheckpoint());
+				nextProgress = now + progressInterval.toNanos();
+			}
+		}
+
+		/******************************************************************/
+		private void put(BlockingQueue<Chunk> queue, Chunk chunk) {
+			try {
+				while(!queue.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					abortIfFailed();
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, e);
+				throw new ImportAbortedException();
+			}
+		}
+
+		/******************************************************************/
+		private Chunk take(BlockingQueue<Chunk> queue) {
+			try {
+				Chunk chunk;
+
+				while(Objects.isNull(chunk = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS))) {
+					abortIfFailed();
+				}
+				return chunk;
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, e);
+				throw new ImportAbortedException();
+			}
+		}
+
+		/******************************************************************/
+		private void abortIfFailed() {
+			if(Objects.nonNull(failure.get())) {
+				throw new ImportAbortedException();
+			}
+		}
+	}
+
+	/*******************************************************************
+	 * upsert() writes one chunk. Stores that already hold one of the
+	 * chunk's employees or customers get a new version too (their ETag
+	 * changes), and every store touched is dropped from the caches once
+	 * the transaction commits.
+	 *******************************************************************/
+	private void upsert(List<Row> rows) {
+		List<StoreRow> stores = new ArrayList<>();
+		List<EmployeeRow> employees = new ArrayList<>();
+		List<CustomerRow> customers = new ArrayList<>();
+
+		for(Row row : rows) {
+			switch(row) {
+			case StoreRow store -> stores.add(store);
+			case EmployeeRow employee -> employees.add(employee);
+			case CustomerRow customer -> customers.add(customer);
+			case RejectedRow rejected -> { }
+			}
+		}
+
+		Set<Long> storeIds = new HashSet<>();
+
+		for(StoreRow store : stores) {
+			storeIds.add(store.petStoreId());
+		}
+
+		Set<Long> employeeIds = new HashSet<>();
+
+		for(EmployeeRow employee : employees) {
+			employeeIds.add(employee.employeeId());
+		}
+
+		List<CustomerRow> upsertedCustomers = new ArrayList<>();
+		List<CustomerLink> links = new ArrayList<>();
+		resolveCustomersByEmail(customers, upsertedCustomers, links);
+		Set<Long> customerIds = new HashSet<>();
+
+		for(CustomerLink link : links) {
+			customerIds.add(link.customerId());
+		}
+
+		Set<Long> otherStoreIds = new HashSet<>();
+
+		if(!employeeIds.isEmpty()) {
+			otherStoreIds.addAll(namedJdbcTemplate.queryForList("SELECT DISTINCT pet_store_id "
+					+ "FROM employee WHERE employee_id IN (:ids) AND pet_store_id IS NOT NULL",
+					Map.of("ids", employeeIds), Long.class));
+		}
+		if(!customerIds.isEmpty()) {
+			otherStoreIds.addAll(namedJdbcTemplate.queryForList("SELECT DISTINCT pet_store_id "
+					+ "FROM pet_store_customer WHERE customer_id IN (:ids)",
+					Map.of("ids", customerIds), Long.class));
+		}
+		otherStoreIds.removeAll(storeIds);
+
+		jdbcTemplate.batchUpdate(STORE_UPSERT, stores, stores.size(), (ps, store) -> {
+			ps.setLong(1, store.petStoreId());
+			ps.setString(2, store.name());
+			ps.setString(3, store.address());
+			ps.setString(4, store.city());
+			ps.setString(5, store.state());
+			ps.setString(6, store.zip());
+			ps.setString(7, store.phone());
+		});
+
+		if(!otherStoreIds.isEmpty()) {
+			namedJdbcTemplate.update("UPDATE pet_store SET version = version + 1 "
+					+ "WHERE pet_store_id IN (:ids)", Map.of("ids", otherStoreIds));
+		}
+
+		jdbcTemplate.batchUpdate(EMPLOYEE_UPSERT, employees, employees.size(), (ps, employee) -> {
+			ps.setLong(1, employee.employeeId());
+			ps.setLong(2, employee.petStoreId());
+			ps.setString(3, employee.firstName());
+			ps.setString(4, employee.lastName());
+			ps.setString(5, employee.phone());
+			ps.setString(6, employee.jobTitle());
+		});
+
+		jdbcTemplate.batchUpdate(CUSTOMER_UPSERT, upsertedCustomers, upsertedCustomers.size(), 
+				(ps, customer) -> {
+					ps.setLong(1, customer.customerId());
+					ps.setString(2, customer.firstName());
+					ps.setString(3, customer.lastName());
+					ps.setString(4, PetStoreService.normalizeEmail(customer.email()));
+				});
+
+		jdbcTemplate.batchUpdate(LINK_INSERT, links, links.size(), (ps, link) -> {
+			ps.setLong(1, link.petStoreId());
+			ps.setLong(2, link.customerId());
+		});
+
+		storeIds.addAll(otherStoreIds);
+
+		for(Long petStoreId : storeIds) {
+			petStoreDataCache.invalidateAfterCommit(petStoreId);
+		}
+		evictSecondLevelCacheAfterCommit(storeIds, employeeIds, customerIds);
+	}
+
+	/*******************************************************************
+	 * Emails are unique and decide who a customer is. A row whose email
+	 * belongs to another customer ID, in the table or earlier in the 
+	 * chunk, is not upserted: MySQL would apply the update to the row 
+	 * holding the email, and the link to the row's own ID would break 
+	 * the foreign key. Its store is linked to the email's customer 
+	 * instead, whose profile stays as it is (as a sign-up by email does).
+	 *******************************************************************/
+	private void resolveCustomersByEmail(List<CustomerRow> customers, List<CustomerRow> upserts,
+			List<CustomerLink> links) {
+		Set<String> emails = new HashSet<>();
+
+		for(CustomerRow customer : customers) {
+			String email = PetStoreService.normalizeEmail(customer.email());
+
+			if(Objects.nonNull(email)) {
+				emails.add(email);
+			}
+		}
+
+		Map<String, Long> customerIdsByEmail = new HashMap<>();
+
+		if(!emails.isEmpty()) {
+			namedJdbcTemplate.query("SELECT customer_id, customer_email FROM customer "
+					+ "WHERE customer_email IN (:emails)", Map.of("emails", emails),
+					(RowCallbackHandler)rs -> customerIdsByEmail.put(rs.getString(2), rs.getLong(1)));
+		}
+
+		for(CustomerRow customer : customers) {
+			String email = PetStoreService.normalizeEmail(customer.email());
+			Long owner = Objects.isNull(email) ? null
+					: customerIdsByEmail.putIfAbsent(email, customer.customerId());
+
+			if(Objects.nonNull(owner) && !owner.equals(customer.customerId())) {
+				links.add(new CustomerLink(customer.petStoreId(), owner));
+			}
+			else {
+				upserts.add(customer);
+				links.add(new CustomerLink(customer.petStoreId(), customer.customerId()));
+			}
+		}
+	}
+
+	/*******************************************************************
+	 * The upserts bypass Hibernate, so the entities and collections they
+	 * changed are evicted from the second-level cache after the commit,
+	 * and so are the cached query results (the store listing pages), 
+	 * which Hibernate only invalidates for its own writes.
+	 *******************************************************************/
+	private void evictSecondLevelCacheAfterCommit(Set<Long> storeIds, Set<Long> employeeIds,
+			Set<Long> customerIds) {
+		Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				for(Long petStoreId : storeIds) {
+					cache.evictEntityData(PetStore.class, petStoreId);
+					cache.evictCollectionData(PET_STORE_EMPLOYEES, petStoreId);
+					cache.evictCollectionData(PET_STORE_CUSTOMERS, petStoreId);
+				}
+				for(Long employeeId : employeeIds) {
+					cache.evictEntityData(Employee.class, employeeId);
+				}
+				for(Long customerId : customerIds) {
+					cache.evictEntityData(Customer.class, customerId);
+					cache.evictCollectionData(CUSTOMER_PET_STORES, customerId);
+				}
+				cache.evictQueryRegions();
+			}
+		});
+	}
+
+	/*******************************************************************
+	 * advanceIdGenerators() moves the ID generators past the largest
+	 * IDs in the tables, so rows created later do not collide with
+	 * imported ones. A pooled sequence hands out the ID_ALLOCATION IDs
+	 * below its value, hence the margin. MySQL keeps the sequences in
+	 * tables and moves AUTO_INCREMENT by itself; H2 needs both moved.
+	 * Blocks that running instances already hold are not moved (see the
+	 * class comment), so moving a sequence is logged as a warning.
+	 *******************************************************************/
+	private void advanceIdGenerators() {
+		try {
+			String database = jdbcTemplate.execute((ConnectionCallback<String>)
+					connection -> connection.getMetaData().getDatabaseProductName());
+			long employeeNext = maxId("employee_id", "employee") + ID_ALLOCATION + 1;
+			long customerNext = maxId("customer_id", "customer") + ID_ALLOCATION + 1;
+			boolean moved = false;
+
+			switch(database) {
+			case "MySQL" -> {
+				moved |= jdbcTemplate.update("UPDATE employee_seq SET next_val = ? WHERE next_val < ?",
+						employeeNext, employeeNext) > 0;
+				moved |= jdbcTemplate.update("UPDATE customer_seq SET next_val = ? WHERE next_val < ?",
+						customerNext, customerNext) > 0;
+			}
+			case "H2" -> {
+				moved |= restartH2Sequence("employee_seq", employeeNext);
+				moved |= restartH2Sequence("customer_seq", customerNext);
+
+				long petStoreNext = maxId("pet_store_id", "pet_store") + 1;
+				Long identityBase = jdbcTemplate.queryForObject("SELECT IDENTITY_BASE "
+						+ "FROM INFORMATION_SCHEMA.COLUMNS WHERE UPPER(TABLE_NAME) = 'PET_STORE' "
+						+ "AND UPPER(COLUMN_NAME) = 'PET_STORE_ID'", Long.class);
+
+				if(Objects.isNull(identityBase) || identityBase < petStoreNext) {
+					jdbcTemplate.execute("ALTER TABLE pet_store ALTER COLUMN pet_store_id RESTART WITH "
+							+ petStoreNext);
+				}
+			}
+			default -> log.warn("ID generators are not advanced on {}; check them after the import.",
+					database);
+			}
+
+			if(moved) {
+				log.warn("Imported IDs passed the employee or customer sequence, which was moved past "
+						+ "them. Restart instances that were already creating employees or customers; "
+						+ "their reserved ID blocks may hold imported IDs.");
+			}
+		}
+		catch(RuntimeException e) {
+			log.warn("Could not advance the ID generators after the import: {}", e.toString());
+		}
+	}
+
+	/******************************************************************/
+	private long maxId(String column, String table) {
+		return jdbcTemplate.queryForObject(
+				"SELECT COALESCE(MAX(" + column + "), 0) FROM " + table, Long.class);
+	}
+
+	/******************************************************************/
+	private boolean restartH2Sequence(String sequence, long next) {
+		Long baseValue = jdbcTemplate.queryForObject("SELECT BASE_VALUE "
+				+ "FROM INFORMATION_SCHEMA.SEQUENCES WHERE UPPER(SEQUENCE_NAME) = ?", Long.class,
+				sequence.toUpperCase());
+
+		if(Objects.isNull(baseValue) || baseValue < next) {
+			jdbcTemplate.execute("ALTER SEQUENCE " + sequence + " RESTART WITH " + next);
+			return true;
+		}
+		return false;
+	}
+
+	/******************************************************************/
+	private static String field(List<String> fields, Map<String, Integer> columns, String column) {
+		Integer index = columns.get(column);
+		return Objects.nonNull(index) && index < fields.size() ? fields.get(index) : null;
+	}
+
+	/******************************************************************/
+	private static Long id(String value) {
+		return Objects.isNull(value) ? null : Long.valueOf(value.trim());
+	}
+
+	/******************************************************************/
+	private static String tooLong(String... values) {
+		for(String value : values) {
+			if(Objects.nonNull(value) && value.length() > MAX_FIELD_LENGTH) {
+				return "A field is longer than " + MAX_FIELD_LENGTH + " characters.";
+			}
+		}
+		return null;
+	}
+
+	private interface Stage {
+		void run() throws Exception;
+	}
+
+	/* Thrown in a stage once another stage has failed; carries no stack trace. */
+	private static final class ImportAbortedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	/*******************************************************************
+	 * Reads RFC 4180 CSV (as PetStoreExporter writes it) one record at
+	 * a time. Quoted fields may hold commas, quotes and line breaks. An
+	 * empty field reads as null.
+	 *******************************************************************/
+	private static final class CsvRecordReader {
+
+		private final Reader reader;
+		private final char[] buffer = new char[64 * 1024];
+		private final StringBuilder field = new StringBuilder();
+		private int position;
+		private int limit;
+
+		CsvRecordReader(Reader reader) {
+			this.reader = reader;
+		}
+
+		/* next() returns null at the end of the input. */
+		List<String> next() throws IOException {
+			int c = read();
+
+			if(c < 0) {
+				return null;
+			}
+
+			List<String> fields = new ArrayList<>();
+			boolean quoted = false;
+
+			while(true) {
+				if(quoted) {
+					if(c < 0) {
+						throw new IOException("A quoted CSV field is not closed.");
+					}
+					if(c == '"') {
+						c = read();
+
+						if(c != '"') {
+							quoted = false;
+							continue;
+						}
+					}
+					field.append((char)c);
+				}
+				else if(c == '"' && field.isEmpty()) {
+					quoted = true;
+				}
+				else if(c == ',') {
+					fields.add(takeField());
+				}
+				else if(c == '\n' || c < 0) {
+					fields.add(takeField());
+					return fields;
+				}
+				else if(c != '\r') {
+					field.append((char)c);
+				}
+				c = read();
+			}
+		}
+
+		private String takeField() {
+			String value = field.isEmpty() ? null : field.toString();
+			field.setLength(0);
+			return value;
+		}
+
+		private int read() throws IOException {
+			if(position == limit) {
+				limit = reader.read(buffer);
+				position = 0;
+
+				if(limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[position++];
+		}
+	}
+}
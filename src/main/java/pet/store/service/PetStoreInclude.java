@@ -0,0 +1,48 @@
+package pet.store.service;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**************************************************************************
+ * Which collections of a petStore are loaded and returned by 
+ * retrievePetStoreById(). Comes from the ?include= query parameter.
+ **************************************************************************/
+public enum PetStoreInclude {
+	ALL(true, true), 
+	EMPLOYEES(true, false), 
+	CUSTOMERS(false, true), 
+	NONE(false, false);
+	
+	private final boolean employees;
+	private final boolean customers;
+	
+	PetStoreInclude(boolean employees, boolean customers) {
+		this.employees = employees;
+		this.customers = customers;
+	}
+	
+	public boolean includesEmployees() {
+		return employees;
+	}
+	
+	public boolean includesCustomers() {
+		return customers;
+	}
+	
+	/*******************************************************************
+	 * fromParameter() maps the query parameter (case insensitive) to an
+	 * include value. A missing parameter means ALL, which is what the 
+	 * endpoint always returned.
+	 *******************************************************************/
+	public static PetStoreInclude fromParameter(String include) {
+		if(Objects.isNull(include) || include.isBlank()) {
+			return ALL;
+		}
+		try {
+			return valueOf(include.trim().toUpperCase(Locale.ROOT));
+		}
+		catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException("Include value " + include + " is NOT valid.");
+		}
+	}
+}
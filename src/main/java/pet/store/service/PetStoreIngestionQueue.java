@@ -0,0 +1,293 @@
+package pet.store.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import pet.store.controller.model.IngestionStatus;
+import pet.store.controller.model.IngestionStatus.State;
+import pet.store.controller.model.PetStoreBatchResult;
+import pet.store.controller.model.PetStoreBatchResult.RowFailure;
+import pet.store.controller.model.PetStoreData.PetStoreCustomer;
+import pet.store.controller.model.PetStoreData.PetStoreEmployee;
+
+/**************************************************************************
+ * Write-behind queue for single employee and customer saves, on when
+ * pet-store.ingestion.enabled is true. A request only puts its row in a
+ * bounded in-memory queue, so it holds no database connection. One
+ * worker thread takes whatever is queued (up to max-batch rows), groups
+ * the rows by petStore and kind, and saves each group through
+ * saveEmployees() / saveCustomers(). Each row's outcome is kept under
+ * its tracking ID for status-retention.
+ *
+ * A full queue is rejected with IngestionQueueFullException. On shutdown
+ * the worker stops after the queue is empty, or after shutdown-timeout.
+ * It runs in a phase below the web server's, so requests have stopped
+ * arriving by then. Rows still queued when the process dies are lost.
+ **************************************************************************/
+@Slf4j
+@Component
+public class PetStoreIngestionQueue implements SmartLifecycle {
+
+	private record Submission(String trackingId, Long petStoreId, Object row) {}
+
+	private record Target(Long petStoreId, Class<?> type) {}
+
+	private static final long POLL_MILLIS = 200;
+
+	@Autowired
+	private PetStoreService petStoreService;
+
+	private final boolean enabled;
+	private final int maxBatch;
+	private final Duration shutdownTimeout;
+	private final BlockingQueue<Submission> queue;
+	private final Cache<String, IngestionStatus> statuses;
+	private final Counter rejected;
+	private final Counter saved;
+	private final Counter failed;
+
+	private volatile boolean running;
+	private Thread worker;
+
+	public PetStoreIngestionQueue(
+			@Value("${pet-store.ingestion.enabled:false}") boolean enabled,
+			@Value("${pet-store.ingestion.queue-capacity:10000}") int queueCapacity,
+			@Value("${pet-store.ingestion.max-batch:500}") int maxBatch,
+			@Value("${pet-store.ingestion.status-retention:1h}") Duration statusRetention,
+			@Value("${pet-store.ingestion.shutdown-timeout:30s}") Duration shutdownTimeout,
+			MeterRegistry registry) {
+
+		this.enabled = enabled;
+		this.maxBatch = maxBatch;
+		this.shutdownTimeout = shutdownTimeout;
+		queue = new ArrayBlockingQueue<>(queueCapacity);
+		statuses = Caffeine.newBuilder()
+				.expireAfterWrite(statusRetention)
+				.maximumSize(100L * queueCapacity)
+				.build();
+
+		Gauge.builder("pet.store.ingestion.queue.size", queue, BlockingQueue::size)
+				.description("Rows waiting to be saved")
+				.register(registry);
+		rejected = Counter.builder("pet.store.ingestion.rejected")
+				.description("Rows refused because the queue was full")
+				.register(registry);
+		saved = Counter.builder("pet.store.ingestion.rows").tag("result", "saved")
+				.register(registry);
+		failed = Counter.builder("pet.store.ingestion.rows").tag("result", "failed")
+				.register(registry);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public IngestionStatus submitEmployee(Long petStoreId, PetStoreEmployee petStoreEmployee) {
+		return submit(petStoreId, petStoreEmployee);
+	}
+
+	public IngestionStatus submitCustomer(Long petStoreId, PetStoreCustomer petStoreCustomer) {
+		return submit(petStoreId, petStoreCustomer);
+	}
+
+	/*******************************************************************
+	 * status() of a submission. Unknown or expired tracking IDs give
+	 * ResourceNotFoundException.
+	 *******************************************************************/
+	public IngestionStatus status(String trackingId) {
+		IngestionStatus status = statuses.getIfPresent(trackingId);
+
+		if(Objects.isNull(status)) {
+			throw new ResourceNotFoundException(
+					"Ingestion with tracking ID=" + trackingId + " was NOT found.");
+		}
+		return status;
+	}
+
+	/******************************************************************/
+	private IngestionStatus submit(Long petStoreId, Object row) {
+		if(!running) {
+			throw new IllegalStateException("The ingestion queue is not running.");
+		}
+
+		String trackingId = UUID.randomUUID().toString();
+		IngestionStatus status = new IngestionStatus(trackingId, petStoreId, State.QUEUED, null);
+		statuses.put(trackingId, status);
+
+		if(!queue.offer(new Submission(trackingId, petStoreId, row))) {
+			statuses.invalidate(trackingId);
+			rejected.increment();
+			throw new IngestionQueueFullException(
+					"The ingestion queue is full. Retry later.");
+		}
+		return status;
+	}
+
+	/*******************************************************************
+	 * drain() is the worker loop. It blocks for the first row, then
+	 * takes everything else already queued, up to maxBatch rows.
+	 *******************************************************************/
+	private void drain() {
+		List<Submission> batch = new ArrayList<>(maxBatch);
+
+		while(true) {
+			try {
+				Submission first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+				if(Objects.isNull(first)) {
+					if(!running) {
+						return;
+					}
+					continue;
+				}
+
+				batch.add(first);
+				queue.drainTo(batch, maxBatch - 1);
+				save(batch);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/******************************************************************/
+	private void save(List<Submission> batch) {
+		Map<Target, List<Submission>> groups = new LinkedHashMap<>();
+
+		for(Submission submission : batch) {
+			groups.computeIfAbsent(new Target(submission.petStoreId(), submission.row().getClass()),
+					target -> new ArrayList<>()).add(submission);
+		}
+
+		for(Map.Entry<Target, List<Submission>> group : groups.entrySet()) {
+			try {
+				record(group.getValue(), saveGroup(group.getKey(), group.getValue()));
+			}
+			catch(RuntimeException e) {
+				log.warn("Ingestion of {} rows for petStore {} failed: {}", group.getValue().size(),
+						group.getKey().petStoreId(), e.toString());
+
+				for(Submission submission : group.getValue()) {
+					setStatus(submission, State.FAILED, e.getMessage());
+				}
+			}
+		}
+	}
+
+	/******************************************************************/
+	private PetStoreBatchResult saveGroup(Target target, List<Submission> submissions) {
+		if(target.type() == PetStoreEmployee.class) {
+			List<PetStoreEmployee> employees = new ArrayList<>(submissions.size());
+
+			for(Submission submission : submissions) {
+				employees.add((PetStoreEmployee)submission.row());
+			}
+			return petStoreService.saveEmployees(target.petStoreId(), employees);
+		}
+
+		List<PetStoreCustomer> customers = new ArrayList<>(submissions.size());
+
+		for(Submission submission : submissions) {
+			customers.add((PetStoreCustomer)submission.row());
+		}
+		return petStoreService.saveCustomers(target.petStoreId(), customers);
+	}
+
+	/******************************************************************/
+	private void record(List<Submission> submissions, PetStoreBatchResult result) {
+		Map<Integer, String> failures = new HashMap<>();
+
+		for(RowFailure failure : result.getFailures()) {
+			failures.put(failure.getIndex(), failure.getMessage());
+		}
+
+		for(int i = 0; i < submissions.size(); i++) {
+			if(failures.containsKey(i)) {
+				setStatus(submissions.get(i), State.FAILED, failures.get(i));
+			}
+			else {
+				setStatus(submissions.get(i), State.SAVED, null);
+			}
+		}
+	}
+
+	/******************************************************************/
+	private void setStatus(Submission submission, State state, String message) {
+		statuses.put(submission.trackingId(), new IngestionStatus(submission.trackingId(),
+				submission.petStoreId(), state, message));
+
+		if(state == State.SAVED) {
+			saved.increment();
+		}
+		else {
+			failed.increment();
+		}
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		worker = new Thread(this::drain, "pet-store-ingestion");
+		worker.start();
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+
+		try {
+			worker.join(shutdownTimeout.toMillis());
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if(worker.isAlive()) {
+			log.warn("Ingestion worker did not drain within {}; {} rows are dropped.",
+					shutdownTimeout, queue.size());
+			worker.interrupt();
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return enabled;
+	}
+
+	/* Lower than the web server's phases: it stops taking requests before this drains. */
+	@Override
+	public int getPhase() {
+		return SmartLifecycle.DEFAULT_PHASE - 4096;
+	}
+}
@@ -0,0 +1,35 @@
+package pet.store.service;
+
+import java.util.Objects;
+
+/**************************************************************************
+ * Sort order of the paged employee and customer listings of a petStore.
+ * Comes from the ?sort= query parameter. Every order ends with the ID so
+ * the keyset cursor always points at exactly one row.
+ **************************************************************************/
+public enum PetStoreMemberSort {
+	ID("id"), 
+	LAST_NAME("lastName");
+	
+	private final String parameter;
+	
+	PetStoreMemberSort(String parameter) {
+		this.parameter = parameter;
+	}
+	
+	/*******************************************************************
+	 * fromParameter() maps the query parameter (case insensitive) to a
+	 * sort value. A missing parameter means ID.
+	 *******************************************************************/
+	public static PetStoreMemberSort fromParameter(String sort) {
+		if(Objects.isNull(sort) || sort.isBlank()) {
+			return ID;
+		}
+		for(PetStoreMemberSort value : values()) {
+			if(value.parameter.equalsIgnoreCase(sort.trim())) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Sort value " + sort + " is NOT valid.");
+	}
+}
@@ -0,0 +1,345 @@
+package pet.store.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import pet.store.entity.Customer;
+import pet.store.entity.Employee;
+import pet.store.entity.PetStore;
+
+/**************************************************************************
+ * Background removal of deleted petStores. deletePetStoreById() only
+ * sets the store's deleted_at tombstone, which hides it from every read.
+ * One worker thread then deletes the store's employees and
+ * pet_store_customer rows chunk-size at a time, each chunk in its own
+ * short transaction by primary key, and finally the store row itself.
+ * It pauses between chunks, so a big store never holds locks for long
+ * or crowds out the requests.
+ *
+ * Stores deleted by this process are queued when the delete commits.
+ * At start, and whenever the worker has been idle for rescan-interval,
+ * the table is scanned for tombstones, which picks up purges cut short
+ * by a restart or queued by another instance. Customers are shared
+ * between stores, so only their links are removed.
+ **************************************************************************/
+@Slf4j
+@Component
+public class PetStorePurger implements SmartLifecycle {
+
+	private static final String PET_STORE_EMPLOYEES = PetStore.class.getName() + ".employees";
+	private static final String PET_STORE_CUSTOMERS = PetStore.class.getName() + ".customers";
+	private static final String CUSTOMER_PET_STORES = Customer.class.getName() + ".petStores";
+
+	/* queued by stop() to end an idle poll; not a store ID */
+	private static final Long WAKE_UP = Long.MIN_VALUE;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private final boolean enabled;
+	private final int chunkSize;
+	private final Duration pause;
+	private final Duration rescanInterval;
+	private final Duration shutdownTimeout;
+	private final TransactionTemplate transactionTemplate;
+	private final BlockingQueue<Long> queue = new LinkedBlockingQueue<>();
+	private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+	private final Counter employeeRows;
+	private final Counter customerLinkRows;
+	private final Counter purged;
+	private final Counter failed;
+	private final Timer purgeTimer;
+
+	private NamedParameterJdbcTemplate namedJdbcTemplate;
+	private volatile boolean running;
+	private Thread worker;
+
+	public PetStorePurger(PlatformTransactionManager transactionManager,
+			@Value("${pet-store.purge.enabled:true}") boolean enabled,
+			@Value("${pet-store.purge.chunk-size:500}") int chunkSize,
+			@Value("${pet-store.purge.pause:50ms}") Duration pause,
+			@Value("${pet-store.purge.rescan-interval:1m}") Duration rescanInterval,
+			@Value("${pet-store.purge.shutdown-timeout:10s}") Duration shutdownTimeout,
+			MeterRegistry registry) {
+
+		this.enabled = enabled;
+		this.chunkSize = chunkSize;
+		this.pause = pause;
+		this.rescanInterval = rescanInterval;
+		this.shutdownTimeout = shutdownTimeout;
+		transactionTemplate = new TransactionTemplate(transactionManager);
+
+		Gauge.builder("pet.store.purge.pending", pending, Set::size)
+				.description("Deleted stores whose rows are not removed yet")
+				.register(registry);
+		employeeRows = Counter.builder("pet.store.purge.rows").tag("table", "employee")
+				.description("Rows removed by the purge")
+				.register(registry);
+		customerLinkRows = Counter.builder("pet.store.purge.rows").tag("table", "pet_store_customer")
+				.description("Rows removed by the purge")
+				.register(registry);
+		purged = Counter.builder("pet.store.purge.stores").tag("result", "purged")
+				.register(registry);
+		failed = Counter.builder("pet.store.purge.stores").tag("result", "failed")
+				.register(registry);
+		purgeTimer = Timer.builder("pet.store.purge.duration")
+				.description("Time to purge one deleted store, pauses included")
+				.register(registry);
+	}
+
+	@PostConstruct
+	private void createJdbcHelpers() {
+		namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+	}
+
+	/*******************************************************************
+	 * purgeAfterCommit() queues the store once the transaction that
+	 * tombstoned it commits. A rollback leaves the store as it was.
+	 *******************************************************************/
+	public void purgeAfterCommit(Long petStoreId) {
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				enqueue(petStoreId);
+			}
+		});
+	}
+
+	/******************************************************************/
+	private void enqueue(Long petStoreId) {
+		if(pending.add(petStoreId)) {
+			queue.add(petStoreId);
+		}
+	}
+
+	/*******************************************************************
+	 * drain() is the worker loop. An idle poll of rescanInterval goes
+	 * back to the table for tombstones nobody queued. Any failure of a
+	 * purge or scan (a TransactionException as much as a 
+	 * DataAccessException) is logged and left to the next rescan; only 
+	 * stop() ends the loop.
+	 *******************************************************************/
+	private void drain() {
+		rescan();
+
+		while(running) {
+			try {
+				Long petStoreId = queue.poll(rescanInterval.toMillis(), TimeUnit.MILLISECONDS);
+
+				if(Objects.isNull(petStoreId)) {
+					rescan();
+					continue;
+				}
+				if(petStoreId.equals(WAKE_UP)) {
+					continue;
+				}
+
+				try {
+					purgeTimer.record(() -> purge(petStoreId));
+					purged.increment();
+				}
+				catch(PurgeInterruptedException e) {
+					throw e;
+				}
+				catch(RuntimeException e) {
+					// the tombstone stays, so a later rescan tries again
+					failed.increment();
+					log.warn("Purge of petStore {} failed: {}", petStoreId, e.toString());
+				}
+				finally {
+					pending.remove(petStoreId);
+				}
+			}
+			catch(PurgeInterruptedException | InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/******************************************************************/
+	private void rescan() {
+		try {
+			List<Long> deleted = jdbcTemplate.queryForList("SELECT pet_store_id FROM pet_store "
+					+ "WHERE deleted_at IS NOT NULL ORDER BY pet_store_id", Long.class);
+
+			for(Long petStoreId : deleted) {
+				enqueue(petStoreId);
+			}
+		}
+		catch(RuntimeException e) {
+			log.warn("Scan for deleted petStores failed: {}", e.toString());
+		}
+	}
+
+	/*******************************************************************
+	 * purge() removes one deleted store. Rows are picked by primary key
+	 * and then deleted by it, which keeps each DELETE to chunkSize index
+	 * entries (and safe for statement-based replication, unlike
+	 * DELETE ... LIMIT).
+	 *******************************************************************/
+	private void purge(Long petStoreId) {
+		log.info("Purging deleted petStore {}", petStoreId);
+		Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+		long employees = 0;
+		long customerLinks = 0;
+
+		for(List<Long> employeeIds = nextEmployees(petStoreId); !employeeIds.isEmpty();
+				employeeIds = nextEmployees(petStoreId)) {
+			Map<String, Object> params = Map.of("petStoreId", petStoreId, "ids", employeeIds);
+			int deleted = inTransaction(() -> namedJdbcTemplate.update("DELETE FROM employee "
+					+ "WHERE pet_store_id = :petStoreId AND employee_id IN (:ids)", params));
+
+			for(Long employeeId : employeeIds) {
+				cache.evictEntityData(Employee.class, employeeId);
+			}
+			employees += deleted;
+			employeeRows.increment(deleted);
+			pause();
+		}
+
+		for(List<Long> customerIds = nextCustomerLinks(petStoreId); !customerIds.isEmpty();
+				customerIds = nextCustomerLinks(petStoreId)) {
+			Map<String, Object> params = Map.of("petStoreId", petStoreId, "ids", customerIds);
+			int deleted = inTransaction(() -> namedJdbcTemplate.update("DELETE FROM "
+					+ "pet_store_customer WHERE pet_store_id = :petStoreId "
+					+ "AND customer_id IN (:ids)", params));
+
+			for(Long customerId : customerIds) {
+				cache.evictCollectionData(CUSTOMER_PET_STORES, customerId);
+			}
+			customerLinks += deleted;
+			customerLinkRows.increment(deleted);
+			pause();
+		}
+
+		// only a tombstone is removed, even if the ID was somehow reused
+		inTransaction(() -> jdbcTemplate.update("DELETE FROM pet_store "
+				+ "WHERE pet_store_id = ? AND deleted_at IS NOT NULL", petStoreId));
+		cache.evictEntityData(PetStore.class, petStoreId);
+		cache.evictCollectionData(PET_STORE_EMPLOYEES, petStoreId);
+		cache.evictCollectionData(PET_STORE_CUSTOMERS, petStoreId);
+
+		log.info("Purged petStore {}: {} employees, {} customer links", petStoreId, employees,
+				customerLinks);
+	}
+
+	/******************************************************************/
+	private List<Long> nextEmployees(Long petStoreId) {
+		return jdbcTemplate.queryForList("SELECT employee_id FROM employee WHERE pet_store_id = ? "
+				+ "ORDER BY employee_id LIMIT ?", Long.class, petStoreId, chunkSize);
+	}
+
+	/******************************************************************/
+	private List<Long> nextCustomerLinks(Long petStoreId) {
+		return jdbcTemplate.queryForList("SELECT customer_id FROM pet_store_customer "
+				+ "WHERE pet_store_id = ? ORDER BY customer_id LIMIT ?", Long.class, petStoreId,
+				chunkSize);
+	}
+
+	/******************************************************************/
+	private int inTransaction(IntSupplier delete) {
+		return transactionTemplate.execute(status -> delete.getAsInt());
+	}
+
+	/******************************************************************/
+	private void pause() {
+		if(!running) {
+			throw new PurgeInterruptedException();
+		}
+		if(pause.isZero()) {
+			return;
+		}
+
+		try {
+			Thread.sleep(pause);
+		}
+		catch(InterruptedException e) {
+			throw new PurgeInterruptedException();
+		}
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		worker = new Thread(this::drain, "pet-store-purge");
+		worker.start();
+	}
+
+	/* A purge cut short here is finished after the next start; its tombstone is still set. */
+	@Override
+	public void stop() {
+		running = false;
+		queue.add(WAKE_UP);
+
+		try {
+			worker.join(shutdownTimeout.toMillis());
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if(worker.isAlive()) {
+			log.warn("Purge worker did not stop within {}.", shutdownTimeout);
+			worker.interrupt();
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return enabled;
+	}
+
+	/* Lower than the web server's phases, like the ingestion queue. */
+	@Override
+	public int getPhase() {
+		return SmartLifecycle.DEFAULT_PHASE - 4096;
+	}
+
+	/******************************************************************/
+	private static final class PurgeInterruptedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+}
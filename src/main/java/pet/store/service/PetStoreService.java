@@ -1,28 +1,69 @@
 package pet.store.service;
 
-import java.util.LinkedList;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
-
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import io.micrometer.core.annotation.Timed;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.PersistenceException;
 import lombok.extern.slf4j.Slf4j;
+import pet.store.controller.model.KeysetPage;
+import pet.store.controller.model.KeysetPage.Position;
+import pet.store.controller.model.PetStoreBatchResult;
+import pet.store.controller.model.PetStoreBatchResult.RowFailure;
 import pet.store.controller.model.PetStoreData;
 import pet.store.controller.model.PetStoreData.PetStoreCustomer;
 import pet.store.controller.model.PetStoreData.PetStoreEmployee;
 import pet.store.dao.CustomerDao;
 import pet.store.dao.EmployeeDao;
 import pet.store.dao.PetStoreDao;
+import pet.store.dao.PetStoreSummary;
+import pet.store.dao.SearchSpecifications;
 import pet.store.entity.Customer;
 import pet.store.entity.Employee;
 import pet.store.entity.PetStore;
 
 @Slf4j
 @Service
+@Timed("pet.store.service")
 public class PetStoreService {
 	@Autowired
 	private PetStoreDao petStoreDao;
@@ -34,6 +75,44 @@ public class PetStoreService {
 	@Autowired
 	private CustomerDao customerDao;
 	
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	private static final String PET_STORE_EMPLOYEES = PetStore.class.getName() + ".employees";
+	private static final String PET_STORE_CUSTOMERS = PetStore.class.getName() + ".customers";
+	private static final String CUSTOMER_PET_STORES = Customer.class.getName() + ".petStores";
+	
+	/* Links a customer to a petStore; a link that already exists is left as it is. */
+	private static final String LINK_CUSTOMER = "INSERT INTO pet_store_customer "
+			+ "(pet_store_id, customer_id) VALUES (?, ?) ON DUPLICATE KEY UPDATE customer_id = customer_id";
+	
+	@Autowired
+	private PetStoreDataCache petStoreDataCache;
+	
+	@Autowired
+	private PetStorePurger petStorePurger;
+	
+	@Value("${pet-store.batch.chunk-size:500}")
+	private int batchChunkSize;
+	
+	@Value("${pet-store.update.max-attempts:3}")
+	private int updateMaxAttempts;
+	
+	@Value("${pet-store.page.default-size:50}")
+	private int defaultPageSize;
+	
+	@Value("${pet-store.page.max-size:500}")
+	private int maxPageSize;
+	
 	/******************************************************************
 	 * savePetStore() method - 
 	 *  calls findOrCreatePetStore() method to see if the pet 
@@ -52,13 +131,58 @@ public class PetStoreService {
 	 * the global controller error handling package.
 	 * 
 	 * ***************************************************************/
-	@Transactional(readOnly = false)
 	public PetStoreData savePetStore(PetStoreData petStoreData) {
+		return savePetStore(petStoreData, null);
+	}
+	
+	/******************************************************************
+	 * savePetStore() with an expected version (the If-Match of a PUT).
+	 *  - expectedVersion given: the update only applies to that
+	 * version. An older version, or a concurrent update that wins the 
+	 * race, gives VersionMismatchException.
+	 *  - no expectedVersion: the update is a full replacement, so it is
+	 * safe to repeat. A concurrent update that wins the race makes this
+	 * one start over, up to updateMaxAttempts times. After that the
+	 * OptimisticLockingFailureException reaches the caller.
+	 * ***************************************************************/
+	public PetStoreData savePetStore(PetStoreData petStoreData, Long expectedVersion) {
+		for(int attempt = 1; ; attempt++) {
+			try {
+				return transactionTemplate.execute(
+						status -> savePetStoreOnce(petStoreData, expectedVersion));
+			}
+			catch(OptimisticLockingFailureException e) {
+				if(Objects.nonNull(expectedVersion)) {
+					throw new VersionMismatchException("PetStore with ID=" 
+							+ petStoreData.getPetStoreId() + " was changed by another update.");
+				}
+				if(attempt >= updateMaxAttempts) {
+					throw e;
+				}
+				log.debug("Update of petStore {} lost a race, attempt {} of {}", 
+						petStoreData.getPetStoreId(), attempt, updateMaxAttempts);
+			}
+		}
+	}
+	
+	/******************************************************************/
+	private PetStoreData savePetStoreOnce(PetStoreData petStoreData, Long expectedVersion) {
 		Long petStoreId = petStoreData.getPetStoreId();
 		PetStore petStore = findOrCreatePetStore(petStoreId);
+		
+		if(Objects.nonNull(expectedVersion) && !expectedVersion.equals(petStore.getVersion())) {
+			throw new VersionMismatchException("PetStore with ID=" + petStoreId 
+					+ " is at version " + petStore.getVersion() + ", not " + expectedVersion + ".");
+		}
+		
 		setFieldsInPetStore(petStore, petStoreData);
 		
-		return new PetStoreData(petStoreDao.save(petStore));
+		if(Objects.nonNull(petStoreId)) {
+			petStoreDataCache.invalidateAfterCommit(petStoreId);
+		}
+		
+		// flushed so the returned version is the one the update produced
+		return new PetStoreData(petStoreDao.saveAndFlush(petStore));
 	}
 	
 	/******************************************************************
@@ -110,7 +234,37 @@ public class PetStoreService {
 				
 		log.info("The petStoreId in findPetStoreById = {}", petStoreId);  // 05/16
 		return petStoreDao.findById(petStoreId)
-			.orElseThrow( () -> new NoSuchElementException(
+			.orElseThrow( () -> new ResourceNotFoundException(
+			"PetStore with ID=" + petStoreId + " was NOT found.") );
+	}
+	
+	/******************************************************************
+	 * lockPetStoreForWrite() is findPetStoreById() for writes to the 
+	 * store's employees or customers. It locks the store row and bumps
+	 * its version, so writes to one store take turns and the store's
+	 * ETag changes whenever its employees or customers do. Only this 
+	 * store is locked: each write holds one store lock, so two writes 
+	 * cannot wait on each other's stores. The EntityManager is used 
+	 * directly, so a lock timeout or deadlock is translated here into
+	 * Spring's PessimisticLockingFailureException (or an optimistic one),
+	 * as a repository call would be.
+	 ******************************************************************/
+	private PetStore lockPetStoreForWrite(Long petStoreId) {
+		PetStore petStore;
+		
+		try {
+			// EntityManager.find() also bumps a store that is already managed
+			petStore = entityManager.find(PetStore.class, petStoreId, 
+					LockModeType.PESSIMISTIC_FORCE_INCREMENT);
+		}
+		catch(PersistenceException e) {
+			DataAccessException translated = 
+					EntityManagerFactoryUtils.convertJpaAccessExceptionIfPossible(e);
+			throw Objects.nonNull(translated) ? translated : e;
+		}
+		
+		return Optional.ofNullable(petStore)
+			.orElseThrow( () -> new ResourceNotFoundException(
 			"PetStore with ID=" + petStoreId + " was NOT found.") );
 	}
 	
@@ -119,52 +273,356 @@ public class PetStoreService {
 	/****************************************************************************/
 		
 	/********************************************************************
-	 *     Retrieve all the rows from petStore table.
+	 *     Retrieve one keyset page of the petStore table. The cursor is
+	 * the nextCursor of the previous page (null for the first page).
+	 * Only "limit" rows are read, no matter how big the table is.
 	 ********************************************************************/
 	
 	@Transactional(readOnly = true)
-	public List<PetStoreData> retrieveAllPetStores() {
-		List<PetStore> petStores = petStoreDao.findAll();
-		List<PetStoreData> result = new LinkedList<>();
+	public KeysetPage<PetStoreData> retrieveAllPetStores(String cursor, Integer limit) {
+		Long afterId = KeysetPage.decodeCursor(cursor);
+		int pageSize = resolvePageSize(limit);
 		
-		for(PetStore petStore : petStores) {
-			PetStoreData psd = new PetStoreData(petStore);
-			
-			psd.getCustomers().clear();
-			psd.getEmployees().clear();
+		List<PetStoreSummary> petStores = petStoreDao
+				.findByPetStoreIdGreaterThanOrderByPetStoreIdAsc(afterId, Limit.of(pageSize));
+		List<PetStoreData> result = new ArrayList<>(petStores.size());
+		
+		for(PetStoreSummary petStore : petStores) {
+			result.add(new PetStoreData(petStore));
+		}
+		
+		String nextCursor = null;
+		
+		if(petStores.size() == pageSize) {
+			nextCursor = KeysetPage.encodeCursor(
+					petStores.get(petStores.size() - 1).getPetStoreId());
+		}
+		
+		return new KeysetPage<>(result, nextCursor);
+	}
+	
+	/********************************************************************
+	 *     Stream every petStore summary to the consumer in ID order. 
+	 * Rows are fetched STREAM_FETCH_SIZE at a time. Summaries are not
+	 * managed entities, so heap use does not grow with the table.
+	 ********************************************************************/
+	@Transactional(readOnly = true)
+	public void streamAllPetStores(Consumer<PetStoreData> consumer) {
+		try(Stream<PetStoreSummary> petStores = petStoreDao.streamAllByOrderByPetStoreIdAsc()) {
+			petStores.map(PetStoreData::new).forEach(consumer);
+		}
+	}
+	
+	/******************************************************************/
+	private int resolvePageSize(Integer limit) {
+		if(Objects.isNull(limit)) {
+			return defaultPageSize;
+		}
+		if(limit < 1) {
+			throw new IllegalArgumentException("Page limit must be at least 1.");
+		}
+		return Math.min(limit, maxPageSize);
+	}
+	
+	/********************************************************************
+	 *        Retrieve petStore for a given petStoreId. include decides
+	 * which collections are fetched. Each collection comes from its own
+	 * entity graph query, so ALL costs two queries and never builds the
+	 * employees x customers cartesian product.
+	 *        The result is served from petStoreDataCache. Only a miss 
+	 * opens a transaction, so a hit never takes a connection from the
+	 * pool. The miss reads the primary (see readFromPrimary()).
+	 ********************************************************************/
+	public PetStoreData retrievePetStoreById(Long petStoreId, PetStoreInclude include) {
+		return petStoreDataCache.get(petStoreId, include, 
+				() -> readFromPrimary(() -> {
+					PetStore petStore = findPetStoreById(petStoreId, include);
+					return new PetStoreData(petStore, 
+							include.includesEmployees(), include.includesCustomers());
+				}));
+	}
+	
+	/********************************************************************
+	 *        ETag of a petStore as retrievePetStoreById() returns it with
+	 * this include, for conditional GETs. It is the store's version, 
+	 * followed by the sum of the versions of each included collection's
+	 * members. The store's version moves with every write through this
+	 * store, links and unlinks included; a customer shared with another
+	 * store can also be edited through that store, which only moves the
+	 * customer's own version, and so the customer sum. Versions only 
+	 * grow, so any such edit changes the sum. One primary key lookup and
+	 * one indexed aggregate per included collection, on the primary; 
+	 * no entity is loaded.
+	 ********************************************************************/
+	public String retrievePetStoreETag(Long petStoreId, PetStoreInclude include) {
+		return readFromPrimary(() -> {
+			Long version = petStoreDao.findVersionByPetStoreId(petStoreId)
+				.orElseThrow( () -> new ResourceNotFoundException(
+				"PetStore with ID=" + petStoreId + " was NOT found.") );
+			Long employeeVersions = include.includesEmployees() 
+					? employeeDao.sumVersionsByPetStoreId(petStoreId) 
+					: null;
+			Long customerVersions = include.includesCustomers() 
+					? customerDao.sumVersionsByPetStoreId(petStoreId) 
+					: null;
 			
-			result.add(psd);
+			return eTag(version, employeeVersions, customerVersions);
+		});
+	}
+	
+	/********************************************************************
+	 *        ETag of a petStore snapshot from retrievePetStoreById(): the
+	 * same value retrievePetStoreETag() computes from the tables.
+	 ********************************************************************/
+	public static String eTagOf(PetStoreData petStoreData, PetStoreInclude include) {
+		Long employeeVersions = include.includesEmployees() 
+				? petStoreData.getEmployees().stream()
+						.mapToLong(employee -> Objects.requireNonNullElse(employee.getVersion(), 0L))
+						.sum()
+				: null;
+		Long customerVersions = include.includesCustomers() 
+				? petStoreData.getCustomers().stream()
+						.mapToLong(customer -> Objects.requireNonNullElse(customer.getVersion(), 0L))
+						.sum()
+				: null;
+		
+		return eTag(petStoreData.getVersion(), employeeVersions, customerVersions);
+	}
+	
+	/******************************************************************
+	 * eTag() is "7" without collections, "7-e12", "7-c30" or "7-e12-c30"
+	 * with them. The store's version always comes first, so If-Match 
+	 * takes any of them (see PetStoreController.parseIfMatch()).
+	 ******************************************************************/
+	private static String eTag(Long version, Long employeeVersions, Long customerVersions) {
+		StringBuilder eTag = new StringBuilder(String.valueOf(version));
+		
+		if(Objects.nonNull(employeeVersions)) {
+			eTag.append("-e").append(employeeVersions);
+		}
+		if(Objects.nonNull(customerVersions)) {
+			eTag.append("-c").append(customerVersions);
+		}
+		return eTag.toString();
+	}
+	
+	/********************************************************************
+	 *        readFromPrimary() runs a read whose result outlives the 
+	 * request: a petStoreDataCache fill (and the second-level and query
+	 * cache entries it puts), or the ETag a 304 is judged by. A 
+	 * readOnly transaction would go to a replica, which may lag: it 
+	 * could cache rows older than a write that has already invalidated
+	 * them, for expire-after-write, or answer 304 to a changed store. 
+	 * The transaction is therefore not read-only, which keeps it on the
+	 * primary; the Hibernate session is, so nothing is dirty-checked.
+	 ********************************************************************/
+	private <T> T readFromPrimary(Supplier<T> read) {
+		return transactionTemplate.execute(status -> {
+			if(status.isNewTransaction()) {
+				entityManager.unwrap(Session.class).setDefaultReadOnly(true);
+			}
+			return read.get();
+		});
+	}
+	
+	/******************************************************************/
+	private PetStore findPetStoreById(Long petStoreId, PetStoreInclude include) {
+		Optional<PetStore> petStore = switch(include) {
+			case ALL, EMPLOYEES -> petStoreDao.findWithEmployeesByPetStoreId(petStoreId);
+			case CUSTOMERS -> petStoreDao.findWithCustomersByPetStoreId(petStoreId);
+			case NONE -> petStoreDao.findById(petStoreId);
+		};
+		
+		PetStore found = petStore.orElseThrow( () -> new ResourceNotFoundException(
+				"PetStore with ID=" + petStoreId + " was NOT found.") );
+		
+		if(include == PetStoreInclude.ALL) {
+			// fills the customers of the instance already in the persistence context
+			petStoreDao.findWithCustomersByPetStoreId(petStoreId);
+		}
+		
+		return found;
+	}
+	
+	/********************************************************************
+	 *     Retrieve one keyset page of a petStore's employees. name is a
+	 * prefix of the first or last name. Only "limit" rows are read, no
+	 * matter how many employees the petStore has.
+	 ********************************************************************/
+	@Transactional(readOnly = true)
+	public KeysetPage<PetStoreEmployee> retrieveEmployees(Long petStoreId, String cursor, 
+			Integer limit, PetStoreMemberSort sort, String name) {
+		
+		findPetStoreById(petStoreId);
+		Position after = KeysetPage.decodePosition(cursor);
+		int pageSize = resolvePageSize(limit);
+		String namePattern = SearchSpecifications.prefixPattern(name);
+		
+		List<Employee> employees = switch(sort) {
+			case ID -> employeeDao.findPageOrderById(petStoreId, after.id(), namePattern, 
+					Limit.of(pageSize));
+			case LAST_NAME -> employeeDao.findPageOrderByLastName(petStoreId, after.key(), 
+					after.id(), namePattern, Limit.of(pageSize));
+		};
+		
+		List<PetStoreEmployee> result = new ArrayList<>(employees.size());
+		
+		for(Employee employee : employees) {
+			result.add(new PetStoreEmployee(employee));
+		}
+		
+		String nextCursor = null;
+		
+		if(employees.size() == pageSize) {
+			Employee last = employees.get(employees.size() - 1);
+			nextCursor = sort == PetStoreMemberSort.LAST_NAME 
+					? KeysetPage.encodeCursor(last.getEmployeeLastName(), last.getEmployeeId())
+					: KeysetPage.encodeCursor(last.getEmployeeId());
+		}
+		
+		return new KeysetPage<>(result, nextCursor);
+	}
+	
+	/********************************************************************
+	 *     Retrieve one keyset page of a petStore's customers. name is a
+	 * prefix of the first or last name, email a prefix of the email.
+	 ********************************************************************/
+	@Transactional(readOnly = true)
+	public KeysetPage<PetStoreCustomer> retrieveCustomers(Long petStoreId, String cursor, 
+			Integer limit, PetStoreMemberSort sort, String name, String email) {
+		
+		findPetStoreById(petStoreId);
+		Position after = KeysetPage.decodePosition(cursor);
+		int pageSize = resolvePageSize(limit);
+		String namePattern = SearchSpecifications.prefixPattern(name);
+		String emailPattern = SearchSpecifications.prefixPattern(email);
+		
+		List<Customer> customers = switch(sort) {
+			case ID -> customerDao.findPageOrderById(petStoreId, after.id(), namePattern, 
+					emailPattern, Limit.of(pageSize));
+			case LAST_NAME -> customerDao.findPageOrderByLastName(petStoreId, after.key(), 
+					after.id(), namePattern, emailPattern, Limit.of(pageSize));
+		};
+		
+		List<PetStoreCustomer> result = new ArrayList<>(customers.size());
+		
+		for(Customer customer : customers) {
+			result.add(new PetStoreCustomer(customer));
+		}
+		
+		String nextCursor = null;
+		
+		if(customers.size() == pageSize) {
+			Customer last = customers.get(customers.size() - 1);
+			nextCursor = sort == PetStoreMemberSort.LAST_NAME 
+					? KeysetPage.encodeCursor(last.getCustomerLastName(), last.getCustomerId())
+					: KeysetPage.encodeCursor(last.getCustomerId());
+		}
+		
+		return new KeysetPage<>(result, nextCursor);
+	}
+	
+	/********************************************************************
+	 *     Search petStores by city, state and zip prefixes. Rows come back
+	 * in the order of the first given filter, so the database walks that
+	 * column's index and stops after "limit" rows.
+	 ********************************************************************/
+	@Transactional(readOnly = true)
+	public List<PetStoreData> searchPetStores(String city, String state, String zip, 
+			Integer limit) {
+		
+		String sortColumn = isGiven(city) ? "petStoreCity"
+				: isGiven(state) ? "petStoreState"
+				: isGiven(zip) ? "petStoreZip"
+				: null;
+		
+		if(Objects.isNull(sortColumn)) {
+			throw new IllegalArgumentException("At least one of city, state or zip is required.");
+		}
+		
+		List<PetStore> petStores = petStoreDao.search(city, state, zip, 
+				Sort.by(sortColumn, "petStoreId"), Limit.of(resolvePageSize(limit)));
+		List<PetStoreData> result = new ArrayList<>(petStores.size());
+		
+		for(PetStore petStore : petStores) {
+			result.add(new PetStoreData(petStore, false, false));
 		}
 		
 		return result;
-	/*	
-		// @formatter:off
-		return petStoreDao.findAll()
-				.stream()
-				.map(PetStoreData::new)
-				.toList();
-		// @formatter:on
-	*/
 	}
 	
 	/********************************************************************
-	 *        Retrieve petStore for a given petStoreId
+	 *     Search customers of every petStore by email and last name 
+	 * prefixes, ordered like searchPetStores().
 	 ********************************************************************/
 	@Transactional(readOnly = true)
-	public PetStoreData retrievePetStoreById(Long petStoreId) {
-		PetStore petStore = findPetStoreById(petStoreId);
-		PetStoreData petStoreData = new PetStoreData(petStore);
-		return petStoreData;
+	public List<PetStoreCustomer> searchCustomers(String email, String lastName, Integer limit) {
+		
+		String sortColumn = isGiven(email) ? "customerEmail"
+				: isGiven(lastName) ? "customerLastName"
+				: null;
+		
+		if(Objects.isNull(sortColumn)) {
+			throw new IllegalArgumentException("At least one of email or lastName is required.");
+		}
+		
+		// stored emails are lower case (see normalizeEmail())
+		String emailPrefix = isGiven(email) ? email.toLowerCase(Locale.ROOT) : email;
+		List<Customer> customers = customerDao.search(emailPrefix, lastName, 
+				Sort.by(sortColumn, "customerId"), Limit.of(resolvePageSize(limit)));
+		List<PetStoreCustomer> result = new ArrayList<>(customers.size());
+		
+		for(Customer customer : customers) {
+			result.add(new PetStoreCustomer(customer));
+		}
+		
+		return result;
 	}
 	
 	/********************************************************************
-	 *        Delete petStore for a given petStoreId
+	 *     Search employees of every petStore by last name prefix.
+	 ********************************************************************/
+	@Transactional(readOnly = true)
+	public List<PetStoreEmployee> searchEmployees(String lastName, Integer limit) {
+		
+		if(!isGiven(lastName)) {
+			throw new IllegalArgumentException("lastName is required.");
+		}
+		
+		List<Employee> employees = employeeDao.search(lastName, 
+				Sort.by("employeeLastName", "employeeId"), Limit.of(resolvePageSize(limit)));
+		List<PetStoreEmployee> result = new ArrayList<>(employees.size());
+		
+		for(Employee employee : employees) {
+			result.add(new PetStoreEmployee(employee));
+		}
+		
+		return result;
+	}
+	
+	/******************************************************************/
+	private static boolean isGiven(String filter) {
+		return Objects.nonNull(filter) && !filter.isBlank();
+	}
+	
+	/********************************************************************
+	 *        Delete petStore for a given petStoreId. Only the store row
+	 * is touched: it gets its deleted_at tombstone, which hides it from
+	 * every read at once. Its employees and customer links are removed
+	 * later, in small chunks, by PetStorePurger.
 	 ********************************************************************/
 	@Transactional(readOnly = false)
 	public void deletePetStoreById(Long petStoreId) {
-		PetStore petStore = findPetStoreById(petStoreId);
-		petStoreDao.delete(petStore);
-				
+		// waits for writes to the store in flight; later ones find no store
+		PetStore petStore = lockPetStoreForWrite(petStoreId);
+		petStore.setDeletedAt(Instant.now());
+		petStoreDataCache.invalidateAfterCommit(petStoreId);
+		
+		// the second-level cache would still hand out the store and its collections by ID
+		evictPetStoreCacheAfterCommit(petStoreId);
+		// any customer's cached petStores may point at this store
+		evictCollectionCacheAfterCommit(CUSTOMER_PET_STORES, null);
+		petStorePurger.purgeAfterCommit(petStoreId);
 	}
 	
 	/********************************************************************
@@ -174,13 +632,15 @@ public class PetStoreService {
 	@Transactional(readOnly = false)
 	public PetStoreEmployee saveEmployee(Long petStoreId, PetStoreEmployee petStoreEmployee) {
 		
-		PetStore petStore = findPetStoreById(petStoreId);
+		PetStore petStore = lockPetStoreForWrite(petStoreId);
 		Long employeeId = petStoreEmployee.getEmployeeId();
 		Employee employee = findOrCreateEmployee(petStoreId, employeeId);
 		
 		copyEmployeeFromPetStoreEmployee(employee, petStoreEmployee);
 		employee.setPetStore(petStore);   
-		petStore.getEmployees().add(employee);
+		// the employees collection is not loaded just to add one row
+		evictCollectionCacheAfterCommit(PET_STORE_EMPLOYEES, petStoreId);
+		petStoreDataCache.invalidateAfterCommit(petStoreId);
 		
 		Employee savedEmployee = employeeDao.save(employee);
 		return new PetStoreEmployee(savedEmployee); 
@@ -207,77 +667,382 @@ public class PetStoreService {
 		
 	}
 	
+	/******************************************************************
+	 * findEmployeeById() looks the employee up by ID and petStoreId in
+	 * one query. Only when that finds nothing is a second query needed
+	 * to tell an unknown employee (404) from one who works at another
+	 * petStore (406).
+	 ******************************************************************/
+	private Employee findEmployeeById(Long petStoreId, Long employeeId) {
+		
+		return employeeDao.findByIdAndPetStoreId(employeeId, petStoreId)
+				.orElseThrow( () -> employeeDao.existsById(employeeId)
+						? new ResourceMismatchException(
+								"Employee with ID=" + employeeId + " was NOT found.")
+						: new ResourceNotFoundException(
+								"Employee with ID=" + employeeId + " was NOT found.") );
+	}
+
+	/********************************************************************
+	 *   Save many employees of one petStore. Rows are written in chunks
+	 * of batchChunkSize, each chunk in its own transaction so Hibernate
+	 * can send the inserts as JDBC batches. A row that fails validation
+	 * is reported and skipped. If a chunk fails while writing, its rows
+	 * are retried one at a time so only the bad rows are reported.
+	 ********************************************************************/
+	public PetStoreBatchResult saveEmployees(Long petStoreId, 
+			List<PetStoreEmployee> petStoreEmployees) {
+		
+		transactionTemplate.executeWithoutResult(status -> findPetStoreById(petStoreId));
+		
+		return saveInChunks(petStoreEmployees, 
+				(chunk, offset) -> saveEmployeeChunk(petStoreId, chunk, offset));
+	}
+	
 	/******************************************************************/
-	 private Employee findEmployeeById(Long petStoreId, Long employeeId) {
+	private List<RowFailure> saveEmployeeChunk(Long petStoreId, 
+			List<PetStoreEmployee> chunk, int offset) {
 		
-		Employee employee = employeeDao.findById(employeeId)
-				.orElseThrow( () -> new NoSuchElementException(
-				"Employee with ID=" + employeeId + " was NOT found.") );
+		PetStore petStore = lockPetStoreForWrite(petStoreId);
+		List<Employee> employees = new ArrayList<>(chunk.size());
+		List<RowFailure> failures = new ArrayList<>();
 		
-		if(employee.getPetStore().getPetStoreId() != petStoreId) {
-			throw new IllegalArgumentException("Employee with ID=" + employeeId + " was NOT found.");
+		for(int i = 0; i < chunk.size(); i++) {
+			PetStoreEmployee petStoreEmployee = chunk.get(i);
+			
+			try {
+				Employee employee = findOrCreateEmployee(petStoreId, 
+						petStoreEmployee.getEmployeeId());
+				
+				copyEmployeeFromPetStoreEmployee(employee, petStoreEmployee);
+				employee.setPetStore(petStore);
+				employees.add(employee);
+			}
+			catch(NoSuchElementException | IllegalArgumentException e) {
+				failures.add(new RowFailure(offset + i, e.getMessage()));
+			}
 		}
 		
-		return employee; 
+		employeeDao.saveAll(employees);
+		evictCollectionCacheAfterCommit(PET_STORE_EMPLOYEES, petStoreId);
+		petStoreDataCache.invalidateAfterCommit(petStoreId);
+		
+		return failures;
 	}
-
+	
+	/********************************************************************
+	 *   Save many customers of one petStore, chunked like 
+	 * saveEmployees(). New customers are linked to the petStore with
+	 * batched inserts into pet_store_customer, so the petStore's 
+	 * customers collection is never loaded.
+	 ********************************************************************/
+	public PetStoreBatchResult saveCustomers(Long petStoreId, 
+			List<PetStoreCustomer> petStoreCustomers) {
+		
+		transactionTemplate.executeWithoutResult(status -> findPetStoreById(petStoreId));
+		
+		return saveInChunks(petStoreCustomers, 
+				(chunk, offset) -> saveCustomerChunk(petStoreId, chunk, offset));
+	}
+	
 	/******************************************************************/
-	 @Transactional(readOnly = false)
-	 public PetStoreCustomer saveCustomer(Long petStoreId, PetStoreCustomer petStoreCustomer) {
+	private List<RowFailure> saveCustomerChunk(Long petStoreId, 
+			List<PetStoreCustomer> chunk, int offset) {
 		
-		PetStore petStore = findPetStoreById(petStoreId);
+		lockPetStoreForWrite(petStoreId);
+		List<Customer> customers = new ArrayList<>(chunk.size());
+		Set<Customer> linkedCustomers = Collections.newSetFromMap(new IdentityHashMap<>());
+		boolean updated = false;
+		boolean linkedByEmail = false;
+		List<RowFailure> failures = new ArrayList<>();
+		Map<String, Customer> customersByEmail = findCustomersByEmail(chunk);
+		
+		for(int i = 0; i < chunk.size(); i++) {
+			PetStoreCustomer petStoreCustomer = chunk.get(i);
+			
+			try {
+				Long customerId = petStoreCustomer.getCustomerId();
+				String email = normalizeEmail(petStoreCustomer.getCustomerEmail());
+				Customer customerWithEmail = Objects.isNull(customerId) && Objects.nonNull(email) 
+						? customersByEmail.get(email) 
+						: null;
+				
+				// an existing customer (or one added earlier in the chunk) is linked as it is
+				if(Objects.nonNull(customerWithEmail)) {
+					linkedCustomers.add(customerWithEmail);
+					linkedByEmail |= Objects.nonNull(customerWithEmail.getCustomerId());
+					continue;
+				}
+				
+				Customer customer = Objects.nonNull(customerId) 
+						? findCustomerById(petStoreId, customerId)
+						: new Customer();
+				
+				if(Objects.isNull(customerId)) {
+					linkedCustomers.add(customer);
+					
+					if(Objects.nonNull(email)) {
+						customersByEmail.put(email, customer);
+					}
+				}
+				else {
+					updated = true;
+				}
+				
+				copyCustomerFromPetStoreCustomer(customer, petStoreCustomer);
+				customers.add(customer);
+			}
+			catch(NoSuchElementException | IllegalArgumentException e) {
+				failures.add(new RowFailure(offset + i, e.getMessage()));
+			}
+		}
+		
+		customerDao.saveAll(customers);
+		customerDao.flush();
+		
+		jdbcTemplate.batchUpdate(LINK_CUSTOMER, linkedCustomers, linkedCustomers.size(), 
+				(ps, customer) -> {
+					ps.setLong(1, petStoreId);
+					ps.setLong(2, customer.getCustomerId());
+				});
+		evictCollectionCacheAfterCommit(PET_STORE_CUSTOMERS, petStoreId);
+		petStoreDataCache.invalidateAfterCommit(petStoreId);
+		
+		if(linkedByEmail) {
+			// customers found by email have been linked to this store
+			evictCollectionCacheAfterCommit(CUSTOMER_PET_STORES, null);
+		}
+		if(updated) {
+			petStoreDataCache.invalidateCustomersAfterCommit();
+		}
+		
+		return failures;
+	}
+	
+	/********************************************************************
+	 *   The batch paths change collections without going through the
+	 * owning entity, so Hibernate cannot keep the second-level collection
+	 * cache in step by itself. The cached collection is evicted once the
+	 * transaction commits (a null ownerId evicts the whole region). 
+	 * Evicting before the commit would let a concurrent reader cache the
+	 * old rows again.
+	 ********************************************************************/
+	private void evictCollectionCacheAfterCommit(String role, Long ownerId) {
+		Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				if(Objects.isNull(ownerId)) {
+					cache.evictCollectionData(role);
+				}
+				else {
+					cache.evictCollectionData(role, ownerId);
+				}
+			}
+		});
+	}
+	
+	/********************************************************************
+	 *   A tombstoned store is filtered out of queries, but the second-
+	 * level cache would still return it, and its collections, by ID. 
+	 ********************************************************************/
+	private void evictPetStoreCacheAfterCommit(Long petStoreId) {
+		Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				cache.evictEntityData(PetStore.class, petStoreId);
+				cache.evictCollectionData(PET_STORE_EMPLOYEES, petStoreId);
+				cache.evictCollectionData(PET_STORE_CUSTOMERS, petStoreId);
+			}
+		});
+	}
+	
+	/******************************************************************/
+	private <T> PetStoreBatchResult saveInChunks(List<T> rows, 
+			BiFunction<List<T>, Integer, List<RowFailure>> chunkWriter) {
+		
+		PetStoreBatchResult result = new PetStoreBatchResult(rows.size());
+		
+		for(int start = 0; start < rows.size(); start += batchChunkSize) {
+			List<T> chunk = rows.subList(start, Math.min(start + batchChunkSize, rows.size()));
+			int offset = start;
+			
+			try {
+				List<RowFailure> failures = transactionTemplate.execute(
+						status -> chunkWriter.apply(chunk, offset));
+				
+				result.setSaved(result.getSaved() + chunk.size() - failures.size());
+				result.getFailures().addAll(failures);
+			}
+			catch(DataAccessException | TransactionException e) {
+				log.warn("Batch chunk at row {} failed, retrying row by row: {}", offset, 
+						NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+				saveRowByRow(chunk, offset, chunkWriter, result);
+			}
+		}
+		
+		return result;
+	}
+	
+	/******************************************************************/
+	private <T> void saveRowByRow(List<T> chunk, int offset, 
+			BiFunction<List<T>, Integer, List<RowFailure>> chunkWriter, 
+			PetStoreBatchResult result) {
+		
+		for(int i = 0; i < chunk.size(); i++) {
+			List<T> row = List.of(chunk.get(i));
+			int index = offset + i;
+			
+			try {
+				List<RowFailure> failures = transactionTemplate.execute(
+						status -> chunkWriter.apply(row, index));
+				
+				result.setSaved(result.getSaved() + 1 - failures.size());
+				result.getFailures().addAll(failures);
+			}
+			catch(DataAccessException | TransactionException e) {
+				result.getFailures().add(new RowFailure(index, 
+						NestedExceptionUtils.getMostSpecificCause(e).getMessage()));
+			}
+		}
+	}
+	
+	/********************************************************************
+	 *   Save one customer of a petStore. An existing customer is already
+	 * linked (findCustomerById() checked that), so only its fields
+	 * change. Customer emails are unique: a customer sent without an ID
+	 * but with the email of an existing customer is only linked to the
+	 * petStore, as it is, so one person signing up at several stores 
+	 * stays one row and a sign-up cannot rewrite someone's profile. Only
+	 * a customer with a new email is inserted. Either way the link is 
+	 * one upsert into pet_store_customer, and neither side's collection 
+	 * is loaded.
+	 *   Saves by email race each other: the loser of two first saves
+	 * hits the unique index. Like savePetStore() without a version, such
+	 * a save starts over (it then finds and links the winner's row), up 
+	 * to updateMaxAttempts times.
+	 ********************************************************************/
+	public PetStoreCustomer saveCustomer(Long petStoreId, PetStoreCustomer petStoreCustomer) {
+		boolean byEmail = Objects.isNull(petStoreCustomer.getCustomerId()) 
+				&& Objects.nonNull(normalizeEmail(petStoreCustomer.getCustomerEmail()));
+		
+		for(int attempt = 1; ; attempt++) {
+			try {
+				return transactionTemplate.execute(
+						status -> saveCustomerOnce(petStoreId, petStoreCustomer));
+			}
+			catch(DataIntegrityViolationException | OptimisticLockingFailureException e) {
+				if(!byEmail || attempt >= updateMaxAttempts) {
+					throw e;
+				}
+				log.debug("Save of customer {} lost a race, attempt {} of {}", 
+						petStoreCustomer.getCustomerEmail(), attempt, updateMaxAttempts);
+			}
+		}
+	}
+	
+	/******************************************************************/
+	private PetStoreCustomer saveCustomerOnce(Long petStoreId, PetStoreCustomer petStoreCustomer) {
+		lockPetStoreForWrite(petStoreId);
 		Long customerId = petStoreCustomer.getCustomerId();
-		Customer customer = findOrCreateCustomer(petStoreId, customerId);
+		String email = normalizeEmail(petStoreCustomer.getCustomerEmail());
+		Optional<Customer> customerWithEmail = Objects.isNull(customerId) && Objects.nonNull(email)
+				? customerDao.findByCustomerEmail(email) 
+				: Optional.empty();
+		
+		if(customerWithEmail.isPresent()) {
+			Customer customer = customerWithEmail.get();
+			jdbcTemplate.update(LINK_CUSTOMER, petStoreId, customer.getCustomerId());
+			petStoreDataCache.invalidateAfterCommit(petStoreId);
+			evictCollectionCacheAfterCommit(PET_STORE_CUSTOMERS, petStoreId);
+			evictCollectionCacheAfterCommit(CUSTOMER_PET_STORES, customer.getCustomerId());
+			return new PetStoreCustomer(customer);
+		}
+		
+		Customer customer = Objects.nonNull(customerId) 
+				? findCustomerById(petStoreId, customerId)
+				: new Customer();
 		
 		copyCustomerFromPetStoreCustomer(customer, petStoreCustomer);
+		Customer savedCustomer = customerDao.saveAndFlush(customer);
+		petStoreDataCache.invalidateAfterCommit(petStoreId);
 		
-		customer.getPetStores().add(petStore);  
-		petStore.getCustomers().add(customer);
+		if(Objects.isNull(customerId)) {
+			jdbcTemplate.update(LINK_CUSTOMER, petStoreId, savedCustomer.getCustomerId());
+			evictCollectionCacheAfterCommit(PET_STORE_CUSTOMERS, petStoreId);
+		}
+		else {
+			petStoreDataCache.invalidateCustomersAfterCommit();
+		}
 		
-		Customer savedCustomer = customerDao.save(customer);
 		return new PetStoreCustomer(savedCustomer); 
 	}
 	
 	/******************************************************************/
 	private void copyCustomerFromPetStoreCustomer(Customer customer, PetStoreCustomer petStoreCustomer) {
 		
-		customer.setCustomerId(petStoreCustomer.getCustomerId());
 		customer.setCustomerFirstName(petStoreCustomer.getCustomerFirstName());
 		customer.setCustomerLastName(petStoreCustomer.getCustomerLastName());
-		customer.setCustomerEmail(petStoreCustomer.getCustomerEmail());
+		customer.setCustomerEmail(normalizeEmail(petStoreCustomer.getCustomerEmail()));
 	}
 	
-	/******************************************************************/
-	private Customer findOrCreateCustomer(Long petStoreId, Long customerId) {
+	/******************************************************************
+	 * Emails are stored trimmed and in lower case, so the unique index
+	 * sees "Ann@X.com " and "ann@x.com" as the same customer. Blank 
+	 * means no email.
+	 ******************************************************************/
+	static String normalizeEmail(String email) {
+		if(Objects.isNull(email) || email.isBlank()) {
+			return null;
+		}
+		return email.trim().toLowerCase(Locale.ROOT);
+	}
+	
+	/******************************************************************
+	 * findCustomersByEmail() loads, with one query on the unique email
+	 * index, the existing customers that rows without an ID refer to.
+	 ******************************************************************/
+	private Map<String, Customer> findCustomersByEmail(List<PetStoreCustomer> petStoreCustomers) {
+		Set<String> emails = new HashSet<>();
 		
-		if(Objects.isNull(customerId)) {
-			return new Customer();
+		for(PetStoreCustomer petStoreCustomer : petStoreCustomers) {
+			String email = normalizeEmail(petStoreCustomer.getCustomerEmail());
+			
+			if(Objects.isNull(petStoreCustomer.getCustomerId()) && Objects.nonNull(email)) {
+				emails.add(email);
+			}
 		}
-	return findCustomerById(petStoreId, customerId);
+		
+		Map<String, Customer> customersByEmail = new HashMap<>();
+		
+		if(!emails.isEmpty()) {
+			for(Customer customer : customerDao.findByCustomerEmailIn(emails)) {
+				customersByEmail.put(customer.getCustomerEmail(), customer);
+			}
+		}
+		return customersByEmail;
 	}
 	
 	
-	/******************************************************************/
+	/******************************************************************
+	 * findCustomerById() loads the customer (usually from the second-
+	 * level cache) and checks membership with one indexed lookup in
+	 * pet_store_customer, so the customer's petStores are never loaded.
+	 ******************************************************************/
 	private Customer findCustomerById(Long petStoreId, Long customerId) {
 		
 		Customer customer = customerDao.findById(customerId)
-				.orElseThrow( () -> new NoSuchElementException(
+				.orElseThrow( () -> new ResourceNotFoundException(
 				"Customer with ID=" + customerId + " was NOT found.") );
 		
-		boolean foundCustomer = false;
-		
-		// loop through each PetStore and see if PetStoreId was found for a given customer.
-		for(PetStore petStore : customer.getPetStores())
-		{    
-			if(petStore.getPetStoreId() == petStoreId)
-			{
-				foundCustomer = true;
-			}
+		if(!customerDao.existsPetStoreLink(petStoreId, customerId)) {
+			throw new ResourceMismatchException("Customer with ID=" + customerId + " was NOT found.");
 		}
 		
-		if(foundCustomer)
-			return customer;
-		else throw new IllegalArgumentException("Customer with ID=" + customerId + " was NOT found.");
+		return customer;
 	}
 	
 	/******************************************************************/
@@ -0,0 +1,20 @@
+package pet.store.service;
+
+/**************************************************************************
+ * An employee or customer ID that exists but belongs to another 
+ * petStore. Stackless like ResourceNotFoundException; it is an 
+ * IllegalArgumentException, so it is still answered with 406.
+ **************************************************************************/
+public class ResourceMismatchException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ResourceMismatchException(String message) {
+		super(message, null);
+	}
+	
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
@@ -0,0 +1,24 @@
+package pet.store.service;
+
+import java.util.NoSuchElementException;
+
+/**************************************************************************
+ * A petStore, employee or customer ID that does not exist. Bad IDs are
+ * common (typos, stale links, scanners), so this exception carries no 
+ * stack trace: filling one in walks the hundred-odd frames of a request
+ * thread and is most of the cost of a 404. It is a 
+ * NoSuchElementException, so it is still answered with 404.
+ **************************************************************************/
+public class ResourceNotFoundException extends NoSuchElementException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ResourceNotFoundException(String message) {
+		super(message);
+	}
+	
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
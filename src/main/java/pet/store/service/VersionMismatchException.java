@@ -0,0 +1,15 @@
+package pet.store.service;
+
+/**************************************************************************
+ * The client updated from a version of a resource that is no longer the
+ * current one (its If-Match did not match). The controller error handler
+ * turns it into 412 Precondition Failed.
+ **************************************************************************/
+public class VersionMismatchException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public VersionMismatchException(String message) {
+		super(message);
+	}
+}
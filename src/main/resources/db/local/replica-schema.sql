@@ -0,0 +1,40 @@
+-- Schema of the stand-in read replica of the "local" profile. H2 runs it
+-- (INIT=RUNSCRIPT) whenever a replica connection is opened. Nothing is
+-- replicated, so rows written to the primary are not visible here; that
+-- is what makes the routing observable. Keep in step with db/migration/h2.
+
+CREATE TABLE IF NOT EXISTS pet_store (
+	pet_store_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+	pet_store_address VARCHAR(255),
+	pet_store_city VARCHAR(255),
+	pet_store_name VARCHAR(255),
+	pet_store_phone VARCHAR(255),
+	pet_store_state VARCHAR(255),
+	pet_store_zip VARCHAR(255),
+	version BIGINT NOT NULL,
+	deleted_at TIMESTAMP(6) WITH TIME ZONE
+);
+
+CREATE TABLE IF NOT EXISTS employee (
+	employee_id BIGINT NOT NULL PRIMARY KEY,
+	employee_first_name VARCHAR(255),
+	employee_job_title VARCHAR(255),
+	employee_last_name VARCHAR(255),
+	employee_phone VARCHAR(255),
+	version BIGINT NOT NULL,
+	pet_store_id BIGINT
+);
+
+CREATE TABLE IF NOT EXISTS customer (
+	customer_id BIGINT NOT NULL PRIMARY KEY,
+	customer_email VARCHAR(255),
+	customer_first_name VARCHAR(255),
+	customer_last_name VARCHAR(255),
+	version BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS pet_store_customer (
+	pet_store_id BIGINT NOT NULL,
+	customer_id BIGINT NOT NULL,
+	PRIMARY KEY (pet_store_id, customer_id)
+);
@@ -0,0 +1,71 @@
+-- H2 in MySQL mode: the same upgrade as mysql/V1__upgrade_original_schema.sql,
+-- with a sequence per generator.
+
+ALTER TABLE pet_store ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
+
+ALTER TABLE pet_store ADD COLUMN deleted_at TIMESTAMP(6) WITH TIME ZONE;
+
+-- prefix searches of /pet_store/search
+CREATE INDEX pet_store_city_ix ON pet_store (pet_store_city, pet_store_id);
+
+CREATE INDEX pet_store_state_ix ON pet_store (pet_store_state, pet_store_id);
+
+CREATE INDEX pet_store_zip_ix ON pet_store (pet_store_zip, pet_store_id);
+
+ALTER TABLE employee ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
+
+CREATE INDEX employee_store_last_name_ix
+	ON employee (pet_store_id, employee_last_name, employee_id);
+
+CREATE INDEX employee_last_name_ix ON employee (employee_last_name, employee_id);
+
+ALTER TABLE customer ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
+
+UPDATE customer SET customer_email = NULLIF(LOWER(TRIM(customer_email)), '');
+
+-- duplicate emails merge into the customer with the lowest ID
+CREATE TABLE customer_merge (
+	duplicate_id BIGINT NOT NULL,
+	keep_id BIGINT NOT NULL,
+	PRIMARY KEY (duplicate_id)
+);
+
+INSERT INTO customer_merge (duplicate_id, keep_id)
+SELECT customer.customer_id, kept.keep_id
+	FROM customer
+	JOIN (SELECT customer_email, MIN(customer_id) AS keep_id FROM customer
+		WHERE customer_email IS NOT NULL GROUP BY customer_email) kept
+		ON kept.customer_email = customer.customer_email
+	WHERE customer.customer_id <> kept.keep_id;
+
+INSERT INTO pet_store_customer (pet_store_id, customer_id)
+SELECT DISTINCT link.pet_store_id, customer_merge.keep_id
+	FROM pet_store_customer link
+	JOIN customer_merge ON customer_merge.duplicate_id = link.customer_id
+	WHERE NOT EXISTS (SELECT 1 FROM pet_store_customer kept_link
+		WHERE kept_link.pet_store_id = link.pet_store_id
+		AND kept_link.customer_id = customer_merge.keep_id);
+
+DELETE FROM pet_store_customer
+	WHERE customer_id IN (SELECT duplicate_id FROM customer_merge);
+
+DELETE FROM customer WHERE customer_id IN (SELECT duplicate_id FROM customer_merge);
+
+DROP TABLE customer_merge;
+
+CREATE UNIQUE INDEX customer_email_ux ON customer (customer_email);
+
+CREATE INDEX customer_last_name_ix ON customer (customer_last_name, customer_id);
+
+CREATE INDEX pet_store_customer_customer_ix ON pet_store_customer (customer_id, pet_store_id);
+
+ALTER TABLE pet_store_customer DROP PRIMARY KEY;
+
+ALTER TABLE pet_store_customer ADD PRIMARY KEY (pet_store_id, customer_id);
+
+-- pooled generators start past the IDs already in use
+CREATE SEQUENCE employee_seq
+	START WITH (SELECT COALESCE(MAX(employee_id), 0) + 51 FROM employee) INCREMENT BY 50;
+
+CREATE SEQUENCE customer_seq
+	START WITH (SELECT COALESCE(MAX(customer_id), 0) + 51 FROM customer) INCREMENT BY 50;
@@ -0,0 +1,8 @@
+-- Same as mysql/V2__add_member_and_tombstone_indexes.sql.
+
+-- a store's employees in ID order: the keyset pages of 
+-- GET /pet_store/{id}/employee and the chunks of PetStorePurger
+CREATE INDEX employee_store_ix ON employee (pet_store_id, employee_id);
+
+-- PetStorePurger's scan for deleted stores; live stores are all NULL
+CREATE INDEX pet_store_deleted_at_ix ON pet_store (deleted_at);
@@ -0,0 +1,50 @@
+-- The schema that ddl-auto: update built for the first version of the
+-- entities: identity IDs everywhere, no version or tombstone columns and
+-- no index besides the keys. A database that already has it is baselined
+-- at this version (spring.flyway.baseline-on-migrate), so only an empty
+-- database runs this file; both then upgrade from V1 onwards.
+
+CREATE TABLE customer (
+	customer_id BIGINT NOT NULL AUTO_INCREMENT,
+	customer_email VARCHAR(255),
+	customer_first_name VARCHAR(255),
+	customer_last_name VARCHAR(255),
+	PRIMARY KEY (customer_id)
+) ENGINE=InnoDB;
+
+CREATE TABLE employee (
+	employee_id BIGINT NOT NULL AUTO_INCREMENT,
+	pet_store_id BIGINT,
+	employee_first_name VARCHAR(255),
+	employee_job_title VARCHAR(255),
+	employee_last_name VARCHAR(255),
+	employee_phone VARCHAR(255),
+	PRIMARY KEY (employee_id)
+) ENGINE=InnoDB;
+
+CREATE TABLE pet_store_customer (
+	customer_id BIGINT NOT NULL,
+	pet_store_id BIGINT NOT NULL,
+	PRIMARY KEY (customer_id, pet_store_id)
+) ENGINE=InnoDB;
+
+CREATE TABLE pet_store (
+	pet_store_id BIGINT NOT NULL AUTO_INCREMENT,
+	pet_store_address VARCHAR(255),
+	pet_store_city VARCHAR(255),
+	pet_store_name VARCHAR(255),
+	pet_store_phone VARCHAR(255),
+	pet_store_state VARCHAR(255),
+	pet_store_zip VARCHAR(255),
+	PRIMARY KEY (pet_store_id)
+) ENGINE=InnoDB;
+
+-- Hibernate's generated constraint names, as the baselined databases have them
+ALTER TABLE employee ADD CONSTRAINT FK32fcj9ap6a9ljvwrercgmua20
+	FOREIGN KEY (pet_store_id) REFERENCES pet_store (pet_store_id);
+
+ALTER TABLE pet_store_customer ADD CONSTRAINT FK3ek9sm1xi7qu3o1as4ln3alat
+	FOREIGN KEY (customer_id) REFERENCES customer (customer_id);
+
+ALTER TABLE pet_store_customer ADD CONSTRAINT FKlpdwp26kaurdqxrxg7ir6h05e
+	FOREIGN KEY (pet_store_id) REFERENCES pet_store (pet_store_id);
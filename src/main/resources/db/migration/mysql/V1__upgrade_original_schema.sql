@@ -0,0 +1,88 @@
+-- Brings the original schema (V0, or a baselined database built by
+-- ddl-auto: update) to what the entities describe now: optimistic
+-- versions, the store tombstone, pooled ID generators, unique emails and
+-- the search indexes. Rows already in the tables are kept.
+
+-- optimistic locking; existing rows start at version 0
+ALTER TABLE pet_store
+	ADD COLUMN version BIGINT NOT NULL DEFAULT 0,
+	ADD COLUMN deleted_at TIMESTAMP(6) NULL DEFAULT NULL,
+	-- prefix searches of /pet_store/search
+	ADD KEY pet_store_city_ix (pet_store_city, pet_store_id),
+	ADD KEY pet_store_state_ix (pet_store_state, pet_store_id),
+	ADD KEY pet_store_zip_ix (pet_store_zip, pet_store_id);
+
+ALTER TABLE employee
+	ADD COLUMN version BIGINT NOT NULL DEFAULT 0,
+	-- also serves the foreign key, so MySQL drops its implicit index
+	ADD KEY employee_store_last_name_ix (pet_store_id, employee_last_name, employee_id),
+	ADD KEY employee_last_name_ix (employee_last_name, employee_id);
+
+ALTER TABLE customer
+	ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+
+-- Emails are stored trimmed and in lower case (PetStoreService.normalizeEmail),
+-- and blank ones as NULL.
+UPDATE customer SET customer_email = NULLIF(LOWER(TRIM(customer_email)), '');
+
+-- Customers sharing an email become the one with the lowest ID, which keeps
+-- its name; the others' store links move to it before they are deleted.
+CREATE TABLE customer_merge (
+	duplicate_id BIGINT NOT NULL,
+	keep_id BIGINT NOT NULL,
+	PRIMARY KEY (duplicate_id)
+) ENGINE=InnoDB;
+
+INSERT INTO customer_merge (duplicate_id, keep_id)
+SELECT customer.customer_id, kept.keep_id
+	FROM customer
+	JOIN (SELECT customer_email, MIN(customer_id) AS keep_id FROM customer
+		WHERE customer_email IS NOT NULL GROUP BY customer_email) kept
+		ON kept.customer_email = customer.customer_email
+	WHERE customer.customer_id <> kept.keep_id;
+
+INSERT INTO pet_store_customer (pet_store_id, customer_id)
+SELECT DISTINCT link.pet_store_id, customer_merge.keep_id
+	FROM pet_store_customer link
+	JOIN customer_merge ON customer_merge.duplicate_id = link.customer_id
+	WHERE NOT EXISTS (SELECT 1 FROM pet_store_customer kept_link
+		WHERE kept_link.pet_store_id = link.pet_store_id
+		AND kept_link.customer_id = customer_merge.keep_id);
+
+DELETE FROM pet_store_customer
+	WHERE customer_id IN (SELECT duplicate_id FROM customer_merge);
+
+DELETE FROM customer WHERE customer_id IN (SELECT duplicate_id FROM customer_merge);
+
+DROP TABLE customer_merge;
+
+ALTER TABLE customer
+	-- emails are stored in lower case, so this is case-insensitive uniqueness
+	ADD UNIQUE KEY customer_email_ux (customer_email),
+	ADD KEY customer_last_name_ix (customer_last_name, customer_id);
+
+-- A store's customers: the primary key leads with the store, and the
+-- reverse index serves a customer's stores. The reverse index comes first,
+-- as the customer foreign key needs an index while the key is swapped.
+ALTER TABLE pet_store_customer
+	ADD KEY pet_store_customer_customer_ix (customer_id, pet_store_id);
+
+ALTER TABLE pet_store_customer
+	DROP PRIMARY KEY,
+	ADD PRIMARY KEY (pet_store_id, customer_id);
+
+-- Pooled generators: each call hands out the block of allocationSize (50)
+-- IDs below next_val, so they start past the IDs already in use. The
+-- AUTO_INCREMENT left on employee_id and customer_id is no longer used;
+-- Hibernate always supplies the ID.
+CREATE TABLE employee_seq (
+	next_val BIGINT
+) ENGINE=InnoDB;
+
+INSERT INTO employee_seq SELECT COALESCE(MAX(employee_id), 0) + 51 FROM employee;
+
+CREATE TABLE customer_seq (
+	next_val BIGINT
+) ENGINE=InnoDB;
+
+INSERT INTO customer_seq SELECT COALESCE(MAX(customer_id), 0) + 51 FROM customer;
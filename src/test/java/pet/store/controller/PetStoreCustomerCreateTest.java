@@ -0,0 +1,228 @@
+package pet.store.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import pet.store.config.IdempotencyKeyStore;
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreCustomer;
+import pet.store.service.PetStoreService;
+
+/**************************************************************************
+ * POST /pet_store/pet_store/{id}/customer. A customer is one row per
+ * email, whatever its case or spacing: posting a known email to another
+ * store links that customer as it is, without touching the profile.
+ * With an Idempotency-Key the first response is replayed to retries,
+ * and a retry that arrives while the first request is still running
+ * gets 409 instead of a second customer.
+ **************************************************************************/
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:customer_create;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false"})
+@AutoConfigureMockMvc
+class PetStoreCustomerCreateTest {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@MockitoSpyBean
+	private PetStoreService petStoreService;
+
+	private Long storeA;
+	private Long storeB;
+	private String email;
+
+	@BeforeEach
+	void createStores() {
+		storeA = createStore("Store A");
+		storeB = createStore("Store B");
+		// unique per test, the database is shared
+		email = "ann." + storeA + "@example.com";
+	}
+
+	@Test
+	void emailsDifferingOnlyInCaseAreOneCustomer() throws Exception {
+		Long first = customerId(createCustomer(storeA, null,
+				customer("Ann", "Lee", "  " + email.toUpperCase() + " ")));
+		Long second = customerId(createCustomer(storeB, null, customer("Ann", "Lee", email)));
+
+		assertThat(second).isEqualTo(first);
+		assertThat(jdbcTemplate.queryForList("SELECT customer_email FROM customer "
+				+ "WHERE LOWER(customer_email) = ?", String.class, email)).containsExactly(email);
+		assertThat(jdbcTemplate.queryForList("SELECT pet_store_id FROM pet_store_customer "
+				+ "WHERE customer_id = ? ORDER BY pet_store_id", Long.class, first))
+				.containsExactly(storeA, storeB);
+	}
+
+	@Test
+	void linkingAnExistingCustomerKeepsTheProfile() throws Exception {
+		Long customerId = customerId(createCustomer(storeA, null, customer("Ann", "Lee", email)));
+		long version = customerVersion(customerId);
+
+		createCustomer(storeB, null, customer("Someone", "Else", email))
+				.andExpect(status().isCreated())
+				.andExpect(jsonPath("$.customerId").value(customerId))
+				.andExpect(jsonPath("$.customerFirstName").value("Ann"))
+				.andExpect(jsonPath("$.customerLastName").value("Lee"));
+
+		assertThat(jdbcTemplate.queryForMap("SELECT customer_first_name, customer_last_name "
+				+ "FROM customer WHERE customer_id = ?", customerId))
+				.containsEntry("CUSTOMER_FIRST_NAME", "Ann")
+				.containsEntry("CUSTOMER_LAST_NAME", "Lee");
+		assertThat(customerVersion(customerId)).isEqualTo(version);
+	}
+
+	@Test
+	void retryWithTheSameKeyReplaysTheFirstResponse() throws Exception {
+		String key = "replay-" + storeA;
+		PetStoreCustomer customer = customer("Ann", "Lee", email);
+
+		MvcResult first = createCustomer(storeA, key, customer)
+				.andExpect(status().isCreated())
+				.andReturn();
+
+		createCustomer(storeA, key, customer)
+				.andExpect(status().isCreated())
+				.andExpect(header().string(IdempotencyKeyStore.REPLAYED_HEADER, "true"))
+				.andExpect(jsonPath("$.customerId").value(customerId(first)));
+
+		// the same key for a different request is refused, not replayed
+		createCustomer(storeA, key, customer("Ann", "Other", "other." + email))
+				.andExpect(status().isUnprocessableEntity());
+
+		assertThat(customersWithEmail()).isEqualTo(1);
+	}
+
+	@Test
+	void concurrentPostsWithTheSameKeyCreateOneCustomer() throws Exception {
+		String key = "concurrent-" + storeA;
+		PetStoreCustomer customer = customer("Ann", "Lee", email);
+		CountDownLatch firstRunning = new CountDownLatch(1);
+		CountDownLatch releaseFirst = new CountDownLatch(1);
+		AtomicBoolean held = new AtomicBoolean();
+
+		// the first save waits until the second POST has been answered
+		doAnswer(invocation -> {
+			if(held.compareAndSet(false, true)) {
+				firstRunning.countDown();
+				releaseFirst.await(10, TimeUnit.SECONDS);
+			}
+			return invocation.callRealMethod();
+		}).when(petStoreService).saveCustomer(any(), any());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			Future<MvcResult> first = executor.submit(
+					() -> createCustomer(storeA, key, customer).andReturn());
+			assertThat(firstRunning.await(10, TimeUnit.SECONDS)).isTrue();
+
+			createCustomer(storeA, key, customer).andExpect(status().isConflict());
+			releaseFirst.countDown();
+
+			MvcResult firstResult = first.get(10, TimeUnit.SECONDS);
+			assertThat(firstResult.getResponse().getStatus()).isEqualTo(201);
+
+			// once the first is done, the key replays it
+			createCustomer(storeA, key, customer)
+					.andExpect(status().isCreated())
+					.andExpect(header().string(IdempotencyKeyStore.REPLAYED_HEADER, "true"))
+					.andExpect(jsonPath("$.customerId").value(customerId(firstResult)));
+		}
+		finally {
+			releaseFirst.countDown();
+			executor.shutdownNow();
+		}
+
+		assertThat(customersWithEmail()).isEqualTo(1);
+	}
+
+	/******************************************************************/
+	private ResultActions createCustomer(Long petStoreId, String key, PetStoreCustomer customer)
+			throws Exception {
+		MockHttpServletRequestBuilder request = post("/pet_store/pet_store/{id}/customer",
+				petStoreId)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(customer));
+
+		if(Objects.nonNull(key)) {
+			request.header(IdempotencyKeyStore.HEADER, key);
+		}
+		return mockMvc.perform(request);
+	}
+
+	/******************************************************************/
+	private Long customerId(ResultActions result) throws Exception {
+		return customerId(result.andExpect(status().isCreated()).andReturn());
+	}
+
+	/******************************************************************/
+	private Long customerId(MvcResult result) throws Exception {
+		return objectMapper.readValue(result.getResponse().getContentAsString(),
+				PetStoreCustomer.class).getCustomerId();
+	}
+
+	/******************************************************************/
+	private long customerVersion(Long customerId) {
+		return jdbcTemplate.queryForObject("SELECT version FROM customer WHERE customer_id = ?",
+				Long.class, customerId);
+	}
+
+	/******************************************************************/
+	private long customersWithEmail() {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM customer "
+				+ "WHERE customer_email = ?", Long.class, email);
+	}
+
+	/******************************************************************/
+	private Long createStore(String name) {
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreName(name);
+		return petStoreService.savePetStore(petStore).getPetStoreId();
+	}
+
+	/******************************************************************/
+	private static PetStoreCustomer customer(String firstName, String lastName, String email) {
+		PetStoreCustomer customer = new PetStoreCustomer();
+		customer.setCustomerFirstName(firstName);
+		customer.setCustomerLastName(lastName);
+		customer.setCustomerEmail(email);
+		return customer;
+	}
+}
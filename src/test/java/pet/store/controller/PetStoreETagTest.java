@@ -0,0 +1,131 @@
+package pet.store.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreCustomer;
+import pet.store.service.PetStoreService;
+
+/**************************************************************************
+ * Conditional GETs of a store whose customer is shared with a second
+ * store. Editing the customer through the second store moves neither
+ * store's version of the first, only the customer's; the first store's
+ * ETag must still change wherever its customers are included, so a
+ * revalidation gets the edited customer instead of a 304.
+ **************************************************************************/
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:etag;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false"})
+@AutoConfigureMockMvc
+class PetStoreETagTest {
+
+	private static final String STORE = "/pet_store/pet_store/{id}";
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private PetStoreService petStoreService;
+
+	private Long storeA;
+	private Long storeB;
+	private Long customerId;
+
+	@BeforeEach
+	void createStoresSharingACustomer() {
+		storeA = createStore("Store A");
+		storeB = createStore("Store B");
+
+		PetStoreCustomer customer = new PetStoreCustomer();
+		customer.setCustomerLastName("Before");
+		customer.setCustomerEmail("shared." + storeA + "@example.com");
+		customerId = petStoreService.saveCustomer(storeA, customer).getCustomerId();
+
+		// same email: linked to store B as it is
+		assertThat(petStoreService.saveCustomer(storeB, customer).getCustomerId())
+				.isEqualTo(customerId);
+	}
+
+	@Test
+	void customerEditedThroughAnotherStoreChangesTheETag() throws Exception {
+		String eTag = eTag(storeA, "all");
+		String eTagWithoutMembers = eTag(storeA, "none");
+
+		mockMvc.perform(get(STORE, storeA).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isNotModified());
+
+		editCustomerThroughStoreB("After");
+
+		mockMvc.perform(get(STORE, storeA).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.customers[0].customerLastName").value("After"));
+		mockMvc.perform(get(STORE, storeA).param("include", "customers")
+				.header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isOk());
+
+		// the new ETag revalidates again, and store A's own version never moved
+		String newETag = eTag(storeA, "all");
+		assertThat(newETag).isNotEqualTo(eTag);
+		mockMvc.perform(get(STORE, storeA).header(HttpHeaders.IF_NONE_MATCH, newETag))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, newETag));
+		mockMvc.perform(get(STORE, storeA).param("include", "none")
+				.header(HttpHeaders.IF_NONE_MATCH, eTagWithoutMembers))
+				.andExpect(status().isNotModified());
+	}
+
+	@Test
+	void ifMatchTakesTheETagOfAGetWithMembers() throws Exception {
+		String eTag = eTag(storeA, "all");
+
+		mockMvc.perform(put(STORE, storeA).header(HttpHeaders.IF_MATCH, eTag)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"petStoreName\":\"Renamed\"}"))
+				.andExpect(status().isOk());
+
+		// the store's version has moved on, so the same ETag is now stale
+		mockMvc.perform(put(STORE, storeA).header(HttpHeaders.IF_MATCH, eTag)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"petStoreName\":\"Renamed again\"}"))
+				.andExpect(status().isPreconditionFailed());
+	}
+
+	/******************************************************************/
+	private String eTag(Long petStoreId, String include) throws Exception {
+		return mockMvc.perform(get(STORE, petStoreId).param("include", include))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+	}
+
+	/******************************************************************/
+	private void editCustomerThroughStoreB(String lastName) {
+		PetStoreCustomer customer = new PetStoreCustomer();
+		customer.setCustomerId(customerId);
+		customer.setCustomerLastName(lastName);
+		customer.setCustomerEmail("shared." + storeA + "@example.com");
+		petStoreService.saveCustomer(storeB, customer);
+	}
+
+	/******************************************************************/
+	private Long createStore(String name) {
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreName(name);
+		return petStoreService.savePetStore(petStore).getPetStoreId();
+	}
+}
@@ -0,0 +1,182 @@
+package pet.store.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import pet.store.controller.model.PetStoreData;
+import pet.store.service.PetStoreDataCache;
+import pet.store.service.PetStoreService;
+
+/**************************************************************************
+ * PUT /pet_store/pet_store/{id} without If-Match under contention. Such a
+ * PUT is a full replacement and starts over when a concurrent update
+ * wins, up to pet-store.update.max-attempts (3 here) times, then answers
+ * 409.
+ *     To lose races on purpose, a concurrent writer commits a change to
+ * the store's row after the PUT has read it and before it writes. The
+ * hook is PetStoreDataCache.invalidateAfterCommit(), which the update
+ * calls between the two.
+ **************************************************************************/
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:update_contention;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false",
+		"pet-store.update.max-attempts=3"})
+@AutoConfigureMockMvc
+class PetStoreUpdateContentionTest {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private PetStoreService petStoreService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@MockitoSpyBean
+	private PetStoreDataCache petStoreDataCache;
+
+	private final ExecutorService concurrentWriter = Executors.newSingleThreadExecutor();
+	private final AtomicInteger racesToLose = new AtomicInteger();
+	private final AtomicInteger racesLost = new AtomicInteger();
+	private Long petStoreId;
+
+	@BeforeEach
+	void createStoreAndWriter() {
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreName("Contended");
+		petStore.setPetStoreZip("0");
+		petStoreId = petStoreService.savePetStore(petStore).getPetStoreId();
+
+		doAnswer(invocation -> {
+			if(racesToLose.getAndDecrement() > 0) {
+				racesLost.incrementAndGet();
+				// another connection, so the change is committed before the PUT writes
+				concurrentWriter.submit(() -> jdbcTemplate.update("UPDATE pet_store "
+						+ "SET pet_store_name = 'Concurrent', version = version + 1 "
+						+ "WHERE pet_store_id = ?", petStoreId)).get();
+			}
+			return invocation.callRealMethod();
+		}).when(petStoreDataCache).invalidateAfterCommit(any());
+	}
+
+	@AfterEach
+	void stopWriter() {
+		concurrentWriter.shutdownNow();
+	}
+
+	@Test
+	void lostRacesAreRetried() throws Exception {
+		long before = version();
+		racesToLose.set(2);
+
+		mockMvc.perform(replace("Mine", "1")).andExpect(status().isOk());
+
+		assertThat(racesLost).hasValue(2);
+		// both concurrent writes and this one, each applied once
+		assertThat(version()).isEqualTo(before + 3);
+		assertThat(storedName()).isEqualTo("Mine");
+	}
+
+	@Test
+	void conflictOnceRetriesRunOut() throws Exception {
+		long before = version();
+		racesToLose.set(3);
+
+		mockMvc.perform(replace("Mine", "1")).andExpect(status().isConflict());
+
+		assertThat(racesLost).hasValue(3);
+		// nothing of the failed PUT was written; the concurrent writes all were
+		assertThat(version()).isEqualTo(before + 3);
+		assertThat(storedName()).isEqualTo("Concurrent");
+	}
+
+	@Test
+	void concurrentReplacementsLoseNoUpdates() throws Exception {
+		long before = version();
+		int clients = 8;
+		int putsPerClient = 10;
+		ExecutorService executor = Executors.newFixedThreadPool(clients);
+		List<Future<List<String>>> results = new ArrayList<>();
+
+		try {
+			for(int client = 0; client < clients; client++) {
+				String name = "Client" + client;
+
+				results.add(executor.submit(() -> {
+					List<String> saved = new ArrayList<>();
+
+					for(int put = 0; put < putsPerClient; put++) {
+						String zip = name + "-" + put;
+						MvcResult result = mockMvc.perform(replace(name, zip)).andReturn();
+						int status = result.getResponse().getStatus();
+
+						assertThat(status).isIn(200, 409);
+						if(status == 200) {
+							saved.add(zip);
+						}
+					}
+					return saved;
+				}));
+			}
+
+			List<String> saved = new ArrayList<>();
+
+			for(Future<List<String>> result : results) {
+				saved.addAll(result.get());
+			}
+
+			// every acknowledged PUT is exactly one version, and the row is the last of them
+			assertThat(version()).isEqualTo(before + saved.size());
+			assertThat(saved).contains(jdbcTemplate.queryForObject("SELECT pet_store_zip "
+					+ "FROM pet_store WHERE pet_store_id = ?", String.class, petStoreId));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/******************************************************************/
+	private MockHttpServletRequestBuilder replace(String name, String zip) {
+		return put("/pet_store/pet_store/{id}", petStoreId)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"petStoreName\":\"" + name + "\",\"petStoreZip\":\"" + zip + "\"}");
+	}
+
+	/******************************************************************/
+	private long version() {
+		return jdbcTemplate.queryForObject("SELECT version FROM pet_store WHERE pet_store_id = ?",
+				Long.class, petStoreId);
+	}
+
+	/******************************************************************/
+	private String storedName() {
+		return jdbcTemplate.queryForObject("SELECT pet_store_name FROM pet_store "
+				+ "WHERE pet_store_id = ?", String.class, petStoreId);
+	}
+}
@@ -0,0 +1,86 @@
+package pet.store.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+/**************************************************************************
+ * The full-table endpoints, the NDJSON stream of the listing and the
+ * export, have rate limits of their own from application.yaml, not the
+ * "default" one. Their refill rate is slowed down here so that no token
+ * comes back during a test; the bursts are the configured ones. Each
+ * test uses its own client address, so each starts with full buckets.
+ **************************************************************************/
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:rate_limit;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false",
+		"pet-store.limits.rate.enabled=true",
+		"pet-store.limits.rate.endpoints.streamAllPetStores.permits-per-second=0.001",
+		"pet-store.limits.rate.endpoints.exportPetStores.permits-per-second=0.001"})
+@AutoConfigureMockMvc
+class RequestRateLimitTest {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Value("${pet-store.limits.rate.endpoints.streamAllPetStores.burst}")
+	private int streamBurst;
+
+	@Value("${pet-store.limits.rate.endpoints.exportPetStores.burst}")
+	private int exportBurst;
+
+	@Test
+	void streamIsRefusedOnceItsBurstIsUsed() throws Exception {
+		String client = "10.0.0.1";
+
+		expectRefusedAfterBurst(() -> get("/pet_store/pet_store").param("format", "ndjson"),
+				client, streamBurst);
+
+		// the paged listing on the same path has a bucket of its own
+		mockMvc.perform(from(get("/pet_store/pet_store"), client)).andExpect(status().isOk());
+	}
+
+	@Test
+	void exportIsRefusedOnceItsBurstIsUsed() throws Exception {
+		expectRefusedAfterBurst(() -> get("/pet_store/export"), "10.0.0.2", exportBurst);
+	}
+
+	/******************************************************************/
+	private void expectRefusedAfterBurst(Supplier<MockHttpServletRequestBuilder> request,
+			String client, int burst) throws Exception {
+
+		for(int i = 0; i < burst; i++) {
+			mockMvc.perform(from(request.get(), client)).andExpect(request().asyncStarted());
+		}
+
+		mockMvc.perform(from(request.get(), client))
+				.andExpect(status().isTooManyRequests())
+				.andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+
+		// another client is not held back
+		mockMvc.perform(from(request.get(), client + "0")).andExpect(request().asyncStarted());
+	}
+
+	/******************************************************************/
+	private static MockHttpServletRequestBuilder from(MockHttpServletRequestBuilder request,
+			String client) {
+		return request.with(servletRequest -> {
+			servletRequest.setRemoteAddr(client);
+			return servletRequest;
+		});
+	}
+}
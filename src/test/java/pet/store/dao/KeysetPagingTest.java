@@ -0,0 +1,237 @@
+package pet.store.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pet.store.controller.model.KeysetPage;
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreEmployee;
+import pet.store.entity.Employee;
+import pet.store.service.PetStoreMemberSort;
+import pet.store.service.PetStoreService;
+
+/**************************************************************************
+ * Walks the keyset queries page by page over seeded rows and checks
+ * that the pages together hold every row exactly once, in order: at
+ * page sizes that do and do not divide the row count, through runs of
+ * equal last names (and NULLs) that straddle page boundaries, and with
+ * rows inserted and deleted between two pages.
+ **************************************************************************/
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {
+		"spring.datasource.url=jdbc:h2:mem:keyset;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false",
+		"pet-store.purge.enabled=false"})
+@TestInstance(Lifecycle.PER_CLASS)
+class KeysetPagingTest {
+
+	private static final int STORES = 12;
+
+	/* runs of ties, NULLs included, longer than the smaller page sizes */
+	private static final List<String> LAST_NAMES = List.of("Baker", "Adams", "Baker", "Adams",
+			"Cole", "Adams", "Baker", "Adams", "Adams", "Baker", "Cole");
+
+	@Autowired
+	private PetStoreDao petStoreDao;
+
+	@Autowired
+	private EmployeeDao employeeDao;
+
+	@Autowired
+	private PetStoreService petStoreService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private Long employeeStoreId;
+
+	@BeforeAll
+	void seed() {
+		for(int store = 1; store <= STORES; store++) {
+			createStore("Store " + store);
+		}
+
+		employeeStoreId = createStore("Employee Store");
+		List<PetStoreEmployee> employees = new ArrayList<>();
+
+		for(String lastName : LAST_NAMES) {
+			employees.add(employee(lastName));
+		}
+		employees.add(employee(null));
+		employees.add(employee(null));
+		employees.add(employee(null));
+		petStoreService.saveEmployees(employeeStoreId, employees);
+	}
+
+	@Test
+	void storePagesHoldEveryRowOnce() {
+		List<Long> expected = liveStoreIds();
+
+		for(int pageSize : new int[] { 1, 4, 5, expected.size(), expected.size() + 1 }) {
+			assertThat(storeIdsInPages(pageSize, null)).as("page size %d", pageSize)
+					.containsExactlyElementsOf(expected);
+		}
+	}
+
+	@Test
+	void lastStorePageHasNoCursor() {
+		int count = liveStoreIds().size();
+
+		// a short last page ends the listing
+		KeysetPage<PetStoreData> shortPage = petStoreService.retrieveAllPetStores(null, count + 1);
+		assertThat(shortPage.getItems()).hasSize(count);
+		assertThat(shortPage.getNextCursor()).isNull();
+
+		// a full last page cannot tell, so the page after it is empty
+		KeysetPage<PetStoreData> fullPage = petStoreService.retrieveAllPetStores(null, count);
+		assertThat(fullPage.getNextCursor()).isNotNull();
+
+		KeysetPage<PetStoreData> emptyPage = petStoreService.retrieveAllPetStores(
+				fullPage.getNextCursor(), count);
+		assertThat(emptyPage.getItems()).isEmpty();
+		assertThat(emptyPage.getNextCursor()).isNull();
+	}
+
+	@Test
+	void storesChangedBetweenPages() {
+		List<Long> before = liveStoreIds();
+		int pageSize = 3;
+		List<Long> seen = new ArrayList<>();
+		List<Long> firstPage = petStoreDao.findByPetStoreIdGreaterThanOrderByPetStoreIdAsc(0L,
+				Limit.of(pageSize)).stream().map(PetStoreSummary::getPetStoreId).toList();
+		seen.addAll(firstPage);
+
+		// one store already read and one not yet read are deleted; one is added at the end
+		Long deletedSeen = firstPage.get(1);
+		Long deletedUnseen = before.get(before.size() - 2);
+		petStoreService.deletePetStoreById(deletedSeen);
+		petStoreService.deletePetStoreById(deletedUnseen);
+		Long added = createStore("Added Between Pages");
+
+		seen.addAll(storeIdsInPages(pageSize, firstPage.get(firstPage.size() - 1)));
+
+		List<Long> expected = new ArrayList<>(before);
+		expected.remove(deletedUnseen);
+		expected.add(added);
+
+		assertThat(seen).containsExactlyElementsOf(expected).doesNotHaveDuplicates();
+	}
+
+	@Test
+	void employeePagesByLastNameHoldEveryRowOnce() {
+		List<Long> expected = employeeIdsByLastName();
+
+		assertThat(expected).hasSize(LAST_NAMES.size() + 3);
+
+		for(int pageSize = 1; pageSize <= expected.size() + 1; pageSize++) {
+			List<Long> seen = new ArrayList<>();
+			String afterLastName = null;
+			Long afterId = 0L;
+			List<Employee> page;
+
+			do {
+				page = employeeDao.findPageOrderByLastName(employeeStoreId, afterLastName,
+						afterId, null, Limit.of(pageSize));
+				assertThat(page.size()).isLessThanOrEqualTo(pageSize);
+
+				for(Employee employee : page) {
+					seen.add(employee.getEmployeeId());
+				}
+				if(!page.isEmpty()) {
+					Employee last = page.get(page.size() - 1);
+					afterLastName = last.getEmployeeLastName();
+					afterId = last.getEmployeeId();
+				}
+			} while(page.size() == pageSize);
+
+			assertThat(seen).as("page size %d", pageSize).containsExactlyElementsOf(expected);
+		}
+	}
+
+	@Test
+	void employeeCursorsRoundTripThroughTheService() {
+		List<Long> expected = employeeIdsByLastName();
+		List<Long> seen = new ArrayList<>();
+		String cursor = null;
+
+		do {
+			KeysetPage<PetStoreEmployee> page = petStoreService.retrieveEmployees(employeeStoreId,
+					cursor, 4, PetStoreMemberSort.LAST_NAME, null);
+			page.getItems().forEach(employee -> seen.add(employee.getEmployeeId()));
+			cursor = page.getNextCursor();
+		} while(Objects.nonNull(cursor));
+
+		assertThat(seen).containsExactlyElementsOf(expected);
+	}
+
+	/*******************************************************************
+	 * storeIdsInPages() reads every page after afterId (null for the
+	 * start) until a short page.
+	 *******************************************************************/
+	private List<Long> storeIdsInPages(int pageSize, Long afterId) {
+		List<Long> seen = new ArrayList<>();
+		Long after = Objects.isNull(afterId) ? 0L : afterId;
+		List<PetStoreSummary> page;
+
+		do {
+			page = petStoreDao.findByPetStoreIdGreaterThanOrderByPetStoreIdAsc(after,
+					Limit.of(pageSize));
+
+			for(PetStoreSummary petStore : page) {
+				seen.add(petStore.getPetStoreId());
+			}
+			if(!page.isEmpty()) {
+				after = page.get(page.size() - 1).getPetStoreId();
+			}
+		} while(page.size() == pageSize);
+
+		return seen;
+	}
+
+	/*******************************************************************
+	 * employeeIdsByLastName() is the expected order: NULL last names
+	 * first, as in MySQL and H2, then last name, then ID.
+	 *******************************************************************/
+	private List<Long> employeeIdsByLastName() {
+		return employeeDao.findPageOrderById(employeeStoreId, 0L, null, Limit.unlimited()).stream()
+				.sorted(Comparator.comparing(Employee::getEmployeeLastName,
+						Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+						.thenComparing(Employee::getEmployeeId))
+				.map(Employee::getEmployeeId).toList();
+	}
+
+	/******************************************************************/
+	private List<Long> liveStoreIds() {
+		return jdbcTemplate.queryForList("SELECT pet_store_id FROM pet_store "
+				+ "WHERE deleted_at IS NULL ORDER BY pet_store_id", Long.class);
+	}
+
+	/******************************************************************/
+	private Long createStore(String name) {
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreName(name);
+		return petStoreService.savePetStore(petStore).getPetStoreId();
+	}
+
+	/******************************************************************/
+	private static PetStoreEmployee employee(String lastName) {
+		PetStoreEmployee employee = new PetStoreEmployee();
+		employee.setEmployeeLastName(lastName);
+		return employee;
+	}
+}
@@ -0,0 +1,170 @@
+package pet.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreCustomer;
+
+/**************************************************************************
+ * PetStoreDataCache on its own: concurrent misses share one load,
+ * callers get copies they may change, and a write's invalidation only
+ * takes effect when its transaction commits. Transactions are stood in
+ * for by TransactionSynchronizationManager, which is all the cache
+ * looks at.
+ **************************************************************************/
+class PetStoreDataCacheTest {
+
+	private static final Long PET_STORE_ID = 1L;
+
+	private PetStoreDataCache cache;
+	private AtomicInteger loads;
+
+	@BeforeEach
+	void createCache() {
+		cache = new PetStoreDataCache(100, Duration.ofMinutes(10), new SimpleMeterRegistry());
+		loads = new AtomicInteger();
+	}
+
+	@AfterEach
+	void endTransaction() {
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	void concurrentMissesShareOneLoad() throws Exception {
+		int callers = 8;
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Supplier<PetStoreData> slowLoader = () -> {
+			loading.countDown();
+			await(release);
+			return load("Loaded once");
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+
+		try {
+			List<Future<PetStoreData>> results = new ArrayList<>();
+
+			results.add(executor.submit(() -> get(slowLoader)));
+			assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+			for(int caller = 1; caller < callers; caller++) {
+				results.add(executor.submit(() -> get(slowLoader)));
+			}
+			// give the other callers time to find the load in flight
+			Thread.sleep(200);
+			release.countDown();
+
+			for(Future<PetStoreData> result : results) {
+				assertThat(result.get(5, TimeUnit.SECONDS).getPetStoreName()).isEqualTo("Loaded once");
+			}
+			assertThat(loads).hasValue(1);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void callersGetCopiesOfTheSnapshot() {
+		PetStoreData first = get(() -> load("Original"));
+
+		first.setPetStoreName("Changed");
+		first.getCustomers().iterator().next().setCustomerLastName("Changed");
+		first.getCustomers().clear();
+
+		PetStoreData second = get(() -> load("Reloaded"));
+
+		assertThat(loads).hasValue(1);
+		assertThat(second.getPetStoreName()).isEqualTo("Original");
+		assertThat(second.getCustomers()).extracting(PetStoreCustomer::getCustomerLastName)
+				.containsExactly("Customer");
+	}
+
+	@Test
+	void rollbackKeepsTheEntry() {
+		get(() -> load("Before"));
+		TransactionSynchronizationManager.initSynchronization();
+
+		cache.invalidateAfterCommit(PET_STORE_ID);
+
+		// the write has not committed, so readers still get the committed state
+		assertThat(get(() -> load("During")).getPetStoreName()).isEqualTo("Before");
+		complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+		assertThat(get(() -> load("After")).getPetStoreName()).isEqualTo("Before");
+		assertThat(loads).hasValue(1);
+	}
+
+	@Test
+	void commitDropsTheEntry() {
+		get(() -> load("Before"));
+		TransactionSynchronizationManager.initSynchronization();
+
+		cache.invalidateAfterCommit(PET_STORE_ID);
+		TransactionSynchronizationUtils.invokeAfterCommit(
+				TransactionSynchronizationManager.getSynchronizations());
+		complete(TransactionSynchronization.STATUS_COMMITTED);
+
+		assertThat(get(() -> load("After")).getPetStoreName()).isEqualTo("After");
+		assertThat(loads).hasValue(2);
+	}
+
+	/******************************************************************/
+	private PetStoreData get(Supplier<PetStoreData> loader) {
+		return cache.get(PET_STORE_ID, PetStoreInclude.ALL, loader);
+	}
+
+	/******************************************************************/
+	private PetStoreData load(String name) {
+		loads.incrementAndGet();
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreId(PET_STORE_ID);
+		petStore.setPetStoreName(name);
+
+		PetStoreCustomer customer = new PetStoreCustomer();
+		customer.setCustomerId(10L);
+		customer.setCustomerLastName("Customer");
+		petStore.getCustomers().add(customer);
+		return petStore;
+	}
+
+	/******************************************************************/
+	private static void complete(int status) {
+		List<TransactionSynchronization> synchronizations =
+				TransactionSynchronizationManager.getSynchronizations();
+		TransactionSynchronizationManager.clearSynchronization();
+		TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, status);
+	}
+
+	/******************************************************************/
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
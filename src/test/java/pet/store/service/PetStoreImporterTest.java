@@ -0,0 +1,204 @@
+package pet.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import pet.store.controller.model.ImportReport;
+import pet.store.controller.model.PetStoreBatchResult.RowFailure;
+
+/**************************************************************************
+ * PetStoreImporter on NDJSON files. An import whose input breaks off in
+ * the middle of a record leaves exactly the records up to its checkpoint
+ * committed; the same file resumed after that checkpoint brings in the
+ * rest, each row written once. A file with more rejected records than
+ * pet-store.import.max-failures lists only that many, counts them all
+ * and still imports the good records.
+ *     With a batch size of 5 rows and 4 rows per store (the store, two
+ * employees, one customer), each chunk is two records.
+ **************************************************************************/
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {
+		"spring.datasource.url=jdbc:h2:mem:import;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false",
+		"pet-store.purge.enabled=false",
+		"pet-store.import.batch-size=5",
+		"pet-store.import.max-failures=2"})
+class PetStoreImporterTest {
+
+	private static final int STORES = 10;
+	private static final long FIRST_STORE_ID = 1001;
+
+	@Autowired
+	private PetStoreImporter petStoreImporter;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void brokenOffImportResumesFromItsCheckpoint() {
+		byte[] file = storesFile();
+		List<Long> checkpoints = new ArrayList<>();
+
+		// the input breaks off in the middle of the seventh record
+		ImportReport broken = petStoreImporter.importRecords(
+				new BreakingInputStream(file, offsetOfLine(file, 7) + 10), ExportFormat.NDJSON, 0,
+				checkpoints::add);
+
+		assertThat(broken.isCompleted()).isFalse();
+		assertThat(broken.getMessage()).contains("Connection reset");
+		long checkpoint = broken.getCheckpoint();
+		assertThat(checkpoint).isPositive().isLessThan(7);
+		assertThat(checkpoints).isNotEmpty().endsWith(checkpoint);
+		// six whole records were read; the report counts only rows committed
+		assertThat(broken.getRecords()).isEqualTo(6);
+		assertThat(broken.getStores()).isEqualTo(checkpoint);
+		assertThat(broken.getEmployees()).isEqualTo(2 * checkpoint);
+
+		// everything up to the checkpoint is in, and nothing after it
+		assertThat(count("pet_store")).isEqualTo(checkpoint);
+		assertThat(count("employee")).isEqualTo(2 * checkpoint);
+		assertThat(count("customer")).isEqualTo(checkpoint);
+		assertThat(jdbcTemplate.queryForObject("SELECT MAX(pet_store_id) FROM pet_store "
+				+ "WHERE pet_store_id >= ?", Long.class, FIRST_STORE_ID))
+				.isEqualTo(FIRST_STORE_ID + checkpoint - 1);
+
+		ImportReport resumed = petStoreImporter.importRecords(new ByteArrayInputStream(file),
+				ExportFormat.NDJSON, checkpoint, record -> {});
+
+		assertThat(resumed.isCompleted()).isTrue();
+		assertThat(resumed.getRecords()).isEqualTo(STORES - checkpoint);
+		assertThat(resumed.getStores()).isEqualTo(STORES - checkpoint);
+		assertThat(resumed.getEmployees()).isEqualTo(2 * (STORES - checkpoint));
+		assertThat(resumed.getCustomers()).isEqualTo(STORES - checkpoint);
+		assertThat(resumed.getCheckpoint()).isEqualTo(STORES);
+
+		assertThat(count("pet_store")).isEqualTo(STORES);
+		assertThat(count("employee")).isEqualTo(2 * STORES);
+		assertThat(count("customer")).isEqualTo(STORES);
+		assertThat(count("pet_store_customer")).isEqualTo(STORES);
+
+		// an upsert of a row already in would have moved its version off 0
+		assertThat(jdbcTemplate.queryForObject("SELECT (SELECT COUNT(*) FROM pet_store "
+				+ "WHERE version <> 0) + (SELECT COUNT(*) FROM employee WHERE version <> 0) "
+				+ "+ (SELECT COUNT(*) FROM customer WHERE version <> 0)", Long.class)).isZero();
+	}
+
+	@Test
+	void rejectedRecordsBeyondMaxFailuresAreOnlyCounted() {
+		String file = String.join("\n",
+				store(2001, "Good"),
+				"{not json",
+				"{\"petStoreName\":\"No ID\"}",
+				store(2004, "Good"),
+				"{\"petStoreId\":2005,\"petStoreName\":\"" + "x".repeat(300) + "\"}",
+				store(2006, "Good"));
+
+		ImportReport report = petStoreImporter.importRecords(
+				new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)),
+				ExportFormat.NDJSON, 0, record -> {});
+
+		assertThat(report.isCompleted()).isTrue();
+		assertThat(report.getRecords()).isEqualTo(6);
+		assertThat(report.getStores()).isEqualTo(3);
+		assertThat(report.getRejected()).isEqualTo(3);
+		// only the first max-failures rejections are listed
+		assertThat(report.getFailures()).extracting(RowFailure::getIndex).containsExactly(2, 3);
+		assertThat(jdbcTemplate.queryForList("SELECT pet_store_id FROM pet_store "
+				+ "WHERE pet_store_id BETWEEN 2001 AND 2006 ORDER BY pet_store_id", Long.class))
+				.containsExactly(2001L, 2004L, 2006L);
+	}
+
+	/******************************************************************/
+	private static byte[] storesFile() {
+		StringBuilder file = new StringBuilder();
+
+		for(int i = 0; i < STORES; i++) {
+			long petStoreId = FIRST_STORE_ID + i;
+			file.append("{\"petStoreId\":").append(petStoreId)
+					.append(",\"petStoreName\":\"Store ").append(i + 1).append("\"")
+					.append(",\"employees\":[")
+					.append("{\"employeeId\":").append(5000 + 2 * i).append(",\"employeeLastName\":\"A\"},")
+					.append("{\"employeeId\":").append(5001 + 2 * i).append(",\"employeeLastName\":\"B\"}]")
+					.append(",\"customers\":[{\"customerId\":").append(7000 + i)
+					.append(",\"customerEmail\":\"c").append(i).append("@example.com\"}]}\n");
+		}
+		return file.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/******************************************************************/
+	private static String store(long petStoreId, String name) {
+		return "{\"petStoreId\":" + petStoreId + ",\"petStoreName\":\"" + name + "\"}";
+	}
+
+	/* Byte offset at which the given (1-based) line starts. */
+	private static int offsetOfLine(byte[] file, int line) {
+		int offset = 0;
+
+		for(int seen = 1; seen < line; offset++) {
+			if(file[offset] == '\n') {
+				seen++;
+			}
+		}
+		return offset;
+	}
+
+	/* Rows of the table that belong to the stores of storesFile(). */
+	private long count(String table) {
+		String petStoreId = table.equals("customer") 
+				? "(SELECT MIN(pet_store_id) FROM pet_store_customer l "
+						+ "WHERE l.customer_id = customer.customer_id)"
+				: "pet_store_id";
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE " 
+				+ petStoreId + " BETWEEN ? AND ?", Long.class, FIRST_STORE_ID, 
+				FIRST_STORE_ID + STORES - 1);
+	}
+
+	/*******************************************************************
+	 * BreakingInputStream hands out the first "limit" bytes of the file,
+	 * then fails the next read as a dropped upload would.
+	 *******************************************************************/
+	private static final class BreakingInputStream extends FilterInputStream {
+
+		private int remaining;
+
+		BreakingInputStream(byte[] file, int limit) {
+			super(new ByteArrayInputStream(file));
+			remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		/* what a socket would have buffered: the reader stops reading ahead here */
+		@Override
+		public int available() throws IOException {
+			return Math.min(super.available(), remaining);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if(remaining <= 0) {
+				throw new IOException("Connection reset");
+			}
+			int read = super.read(buffer, offset, Math.min(length, remaining));
+			remaining -= Math.max(read, 0);
+			return read;
+		}
+	}
+}
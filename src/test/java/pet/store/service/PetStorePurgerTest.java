@@ -0,0 +1,119 @@
+package pet.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreEmployee;
+
+/**************************************************************************
+ * PetStorePurger when a purge fails. The last step of one store's purge,
+ * removing its tombstone, fails once. The worker must carry on with the
+ * next deleted store, and the next rescan must find the tombstone that
+ * is left and purge it. The rescan interval is long enough to look at
+ * the store in between, and short enough for the test.
+ **************************************************************************/
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {
+		"spring.datasource.url=jdbc:h2:mem:purge;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false",
+		"pet-store.purge.chunk-size=2",
+		"pet-store.purge.pause=0ms",
+		"pet-store.purge.rescan-interval=2s"})
+class PetStorePurgerTest {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(15);
+
+	@Autowired
+	private PetStoreService petStoreService;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@MockitoSpyBean
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void failedPurgeIsRetriedByTheNextRescan() {
+		Long failing = createStoreWithEmployees("Fails once", 3);
+		Long next = createStoreWithEmployees("Purged next", 3);
+		AtomicBoolean failed = new AtomicBoolean();
+
+		// the purge worker's removal of a tombstone fails the first time
+		doAnswer(invocation -> {
+			if(Thread.currentThread().getName().equals("pet-store-purge")
+					&& failed.compareAndSet(false, true)) {
+				throw new TransientDataAccessResourceException("Lock wait timeout exceeded");
+			}
+			return invocation.callRealMethod();
+		}).when(jdbcTemplate).update(startsWith("DELETE FROM pet_store "), any(Object[].class));
+
+		petStoreService.deletePetStoreById(failing);
+
+		await().atMost(TIMEOUT).until(() -> purges("failed") == 1);
+		// the tombstone is still there for the rescan; its employees are gone already
+		assertThat(storeRows(failing)).isEqualTo(1);
+		assertThat(employeeRows(failing)).isZero();
+
+		// the worker is still running: the next store is purged as soon as it is deleted
+		petStoreService.deletePetStoreById(next);
+		await().atMost(TIMEOUT).until(() -> storeRows(next) == 0);
+		assertThat(employeeRows(next)).isZero();
+
+		// and the rescan picks the failed store up again
+		await().atMost(TIMEOUT).until(() -> storeRows(failing) == 0);
+		assertThat(purges("failed")).isEqualTo(1);
+		assertThat(purges("purged")).isGreaterThanOrEqualTo(2);
+	}
+
+	/******************************************************************/
+	private double purges(String result) {
+		return registry.get("pet.store.purge.stores").tag("result", result).counter().count();
+	}
+
+	/******************************************************************/
+	private long storeRows(Long petStoreId) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pet_store WHERE pet_store_id = ?",
+				Long.class, petStoreId);
+	}
+
+	/******************************************************************/
+	private long employeeRows(Long petStoreId) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM employee WHERE pet_store_id = ?",
+				Long.class, petStoreId);
+	}
+
+	/******************************************************************/
+	private Long createStoreWithEmployees(String name, int employees) {
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreName(name);
+		Long petStoreId = petStoreService.savePetStore(petStore).getPetStoreId();
+		List<PetStoreEmployee> rows = new ArrayList<>();
+
+		for(int i = 0; i < employees; i++) {
+			PetStoreEmployee employee = new PetStoreEmployee();
+			employee.setEmployeeLastName(name + " " + i);
+			rows.add(employee);
+		}
+		petStoreService.saveEmployees(petStoreId, rows);
+		return petStoreId;
+	}
+}
@@ -0,0 +1,111 @@
+package pet.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+
+import pet.store.controller.model.PetStoreBatchResult;
+import pet.store.controller.model.PetStoreBatchResult.RowFailure;
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreCustomer;
+import pet.store.controller.model.PetStoreData.PetStoreEmployee;
+
+/**************************************************************************
+ * Batch saves with bad rows among good ones. Chunks are three rows, so
+ * each batch spans several chunks. A row that fails validation is
+ * reported from inside its chunk; a row the database rejects fails the
+ * whole chunk, whose rows are then saved one at a time. Either way only
+ * the bad row is reported, by its index in the request, and every other
+ * row is saved.
+ **************************************************************************/
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {
+		"spring.datasource.url=jdbc:h2:mem:batch;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false",
+		"pet-store.batch.chunk-size=3"})
+class PetStoreServiceBatchTest {
+
+	/* longer than the VARCHAR(255) columns, so only the INSERT fails */
+	private static final String TOO_LONG = "x".repeat(300);
+
+	@Autowired
+	private PetStoreService petStoreService;
+
+	@Test
+	void employeeBatchReportsOnlyTheBadRows() {
+		Long petStoreId = createStore("Employee Batch");
+		List<PetStoreEmployee> employees = new ArrayList<>();
+
+		for(int row = 0; row < 8; row++) {
+			employees.add(employee("Good" + row));
+		}
+		// an unknown ID, found while the chunk is built
+		employees.get(1).setEmployeeId(999_999L);
+		// a value the database rejects, found when the chunk is written
+		employees.get(4).setEmployeeLastName(TOO_LONG);
+
+		PetStoreBatchResult result = petStoreService.saveEmployees(petStoreId, employees);
+
+		assertThat(result.getSubmitted()).isEqualTo(8);
+		assertThat(result.getSaved()).isEqualTo(6);
+		assertThat(result.getFailures()).extracting(RowFailure::getIndex).containsExactly(1, 4);
+		assertThat(result.getFailures().get(0).getMessage()).contains("999999");
+
+		PetStoreData petStore = petStoreService.retrievePetStoreById(petStoreId,
+				PetStoreInclude.EMPLOYEES);
+
+		assertThat(petStore.getEmployees()).extracting(PetStoreEmployee::getEmployeeLastName)
+				.containsExactlyInAnyOrder("Good0", "Good2", "Good3", "Good5", "Good6", "Good7");
+	}
+
+	@Test
+	void customerBatchReportsOnlyTheBadRow() {
+		Long petStoreId = createStore("Customer Batch");
+		List<PetStoreCustomer> customers = new ArrayList<>();
+
+		for(int row = 0; row < 5; row++) {
+			customers.add(customer("Customer" + row, "batch" + row + "@example.com"));
+		}
+		customers.get(3).setCustomerEmail(TOO_LONG + "@example.com");
+
+		PetStoreBatchResult result = petStoreService.saveCustomers(petStoreId, customers);
+
+		assertThat(result.getSaved()).isEqualTo(4);
+		assertThat(result.getFailures()).extracting(RowFailure::getIndex).containsExactly(3);
+
+		PetStoreData petStore = petStoreService.retrievePetStoreById(petStoreId,
+				PetStoreInclude.CUSTOMERS);
+
+		assertThat(petStore.getCustomers()).extracting(PetStoreCustomer::getCustomerLastName)
+				.containsExactlyInAnyOrder("Customer0", "Customer1", "Customer2", "Customer4");
+	}
+
+	/******************************************************************/
+	private Long createStore(String name) {
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreName(name);
+		return petStoreService.savePetStore(petStore).getPetStoreId();
+	}
+
+	/******************************************************************/
+	private static PetStoreEmployee employee(String lastName) {
+		PetStoreEmployee employee = new PetStoreEmployee();
+		employee.setEmployeeLastName(lastName);
+		return employee;
+	}
+
+	/******************************************************************/
+	private static PetStoreCustomer customer(String lastName, String email) {
+		PetStoreCustomer customer = new PetStoreCustomer();
+		customer.setCustomerLastName(lastName);
+		customer.setCustomerEmail(email);
+		return customer;
+	}
+}
@@ -0,0 +1,154 @@
+package pet.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+
+import jakarta.persistence.EntityManagerFactory;
+import pet.store.controller.model.KeysetPage;
+import pet.store.controller.model.PetStoreData;
+import pet.store.controller.model.PetStoreData.PetStoreCustomer;
+import pet.store.controller.model.PetStoreData.PetStoreEmployee;
+
+/**************************************************************************
+ * SQL statements issued by the store reads, counted with Hibernate
+ * statistics (generate_statistics is on in application.yaml). Every
+ * cache is emptied before each test, so each read goes to the database.
+ * The store detail may take two queries, one per collection.
+ **************************************************************************/
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {
+		"spring.datasource.url=jdbc:h2:mem:query_count;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false"})
+@TestInstance(Lifecycle.PER_CLASS)
+class PetStoreServiceQueryCountTest {
+
+	private static final int STORES = 3;
+	private static final int MEMBERS = 5;
+
+	@Autowired
+	private PetStoreService petStoreService;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private PetStoreDataCache petStoreDataCache;
+
+	private SessionFactory sessionFactory;
+	private Statistics statistics;
+	private final List<Long> petStoreIds = new ArrayList<>();
+
+	@BeforeAll
+	void createStores() {
+		sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+		statistics = sessionFactory.getStatistics();
+
+		for(int store = 1; store <= STORES; store++) {
+			PetStoreData petStoreData = new PetStoreData();
+			petStoreData.setPetStoreName("Store " + store);
+			petStoreData.setPetStoreAddress(store + " Main St");
+			petStoreData.setPetStoreCity("Boise");
+			Long petStoreId = petStoreService.savePetStore(petStoreData).getPetStoreId();
+			petStoreIds.add(petStoreId);
+
+			List<PetStoreEmployee> employees = new ArrayList<>();
+			List<PetStoreCustomer> customers = new ArrayList<>();
+
+			for(int member = 1; member <= MEMBERS; member++) {
+				PetStoreEmployee employee = new PetStoreEmployee();
+				employee.setEmployeeLastName("Employee " + store + "-" + member);
+				employees.add(employee);
+
+				PetStoreCustomer customer = new PetStoreCustomer();
+				customer.setCustomerEmail("customer" + store + "-" + member + "@example.com");
+				customers.add(customer);
+			}
+			petStoreService.saveEmployees(petStoreId, employees);
+			petStoreService.saveCustomers(petStoreId, customers);
+		}
+	}
+
+	@BeforeEach
+	void emptyCaches() {
+		sessionFactory.getCache().evictAllRegions();
+		petStoreIds.forEach(petStoreDataCache::invalidate);
+		statistics.clear();
+	}
+
+	@Test
+	void listingPageIsOneSelectWithoutCollections() {
+		KeysetPage<PetStoreData> page = petStoreService.retrieveAllPetStores(null, 50);
+
+		assertThat(page.getItems()).hasSize(STORES);
+		assertThat(page.getItems().get(0).getPetStoreAddress()).isEqualTo("1 Main St");
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(statistics.getCollectionLoadCount()).isZero();
+		assertThat(statistics.getEntityLoadCount()).isZero();
+	}
+
+	@Test
+	void streamedListingIsOneSelectWithoutCollections() {
+		List<PetStoreData> petStores = new ArrayList<>();
+
+		petStoreService.streamAllPetStores(petStores::add);
+
+		assertThat(petStores).hasSize(STORES);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(statistics.getCollectionLoadCount()).isZero();
+		assertThat(statistics.getEntityLoadCount()).isZero();
+	}
+
+	@Test
+	void detailWithAllIsTwoQueries() {
+		PetStoreData petStore = petStoreService.retrievePetStoreById(petStoreIds.get(0), 
+				PetStoreInclude.ALL);
+
+		assertThat(petStore.getEmployees()).hasSize(MEMBERS);
+		assertThat(petStore.getCustomers()).hasSize(MEMBERS);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+	}
+
+	@Test
+	void detailWithEmployeesIsOneQuery() {
+		PetStoreData petStore = petStoreService.retrievePetStoreById(petStoreIds.get(0), 
+				PetStoreInclude.EMPLOYEES);
+
+		assertThat(petStore.getEmployees()).hasSize(MEMBERS);
+		assertThat(petStore.getCustomers()).isEmpty();
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	@Test
+	void detailWithCustomersIsOneQuery() {
+		PetStoreData petStore = petStoreService.retrievePetStoreById(petStoreIds.get(0), 
+				PetStoreInclude.CUSTOMERS);
+
+		assertThat(petStore.getEmployees()).isEmpty();
+		assertThat(petStore.getCustomers()).hasSize(MEMBERS);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	@Test
+	void detailWithNoneIsOneQuery() {
+		PetStoreData petStore = petStoreService.retrievePetStoreById(petStoreIds.get(0), 
+				PetStoreInclude.NONE);
+
+		assertThat(petStore.getPetStoreName()).isEqualTo("Store 1");
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(statistics.getCollectionLoadCount()).isZero();
+	}
+}
@@ -0,0 +1,72 @@
+package pet.store.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import pet.store.controller.model.PetStoreData;
+
+/**************************************************************************
+ * Replica routing with a replica that lags. The stand-in replica is a
+ * second H2 database that nothing replicates to; the test copies a
+ * store into it once and never again, so it keeps serving that old row.
+ * Reads that fill petStoreDataCache, and the ETag behind a 304, must
+ * come from the primary anyway; plain read-only queries still go to the
+ * replica, which shows it is in the rotation.
+ **************************************************************************/
+@SpringBootTest(webEnvironment = WebEnvironment.NONE, properties = {
+		"spring.datasource.url=jdbc:h2:mem:replica_test_primary;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.show-sql=false",
+		"pet-store.datasource.replicas.enabled=true",
+		"pet-store.datasource.replicas.urls=" + PetStoreServiceReplicaTest.REPLICA_URL})
+class PetStoreServiceReplicaTest {
+
+	static final String REPLICA_URL = "jdbc:h2:mem:replica_test_replica;MODE=MySQL;"
+			+ "DB_CLOSE_DELAY=-1;INIT=RUNSCRIPT FROM 'classpath:db/local/replica-schema.sql'";
+
+	@Autowired
+	private PetStoreService petStoreService;
+
+	@Test
+	void cacheFillsAndVersionsReadThePrimary() {
+		PetStoreData petStore = new PetStoreData();
+		petStore.setPetStoreName("Before");
+		PetStoreData saved = petStoreService.savePetStore(petStore);
+		Long petStoreId = saved.getPetStoreId();
+
+		// the replica catches up to this first version, then falls behind
+		replica().update("INSERT INTO pet_store (pet_store_id, pet_store_name, version) "
+				+ "VALUES (?, ?, ?)", petStoreId, "Before", saved.getVersion());
+
+		// cached before the write, so the write's after-commit invalidation has work to do
+		assertThat(petStoreService.retrievePetStoreById(petStoreId, PetStoreInclude.NONE)
+				.getPetStoreName()).isEqualTo("Before");
+
+		saved.setPetStoreName("After");
+		Long newVersion = petStoreService.savePetStore(saved).getVersion();
+
+		PetStoreData reloaded = petStoreService.retrievePetStoreById(petStoreId,
+				PetStoreInclude.NONE);
+
+		assertThat(reloaded.getPetStoreName()).isEqualTo("After");
+		assertThat(reloaded.getVersion()).isEqualTo(newVersion);
+		assertThat(petStoreService.retrievePetStoreETag(petStoreId, PetStoreInclude.NONE))
+				.isEqualTo(String.valueOf(newVersion));
+
+		// the listing is a plain read-only query, and the replica still has the old row
+		assertThat(petStoreService.retrieveAllPetStores(null, 10).getItems())
+				.extracting(PetStoreData::getPetStoreName).containsExactly("Before");
+	}
+
+	/******************************************************************/
+	private static JdbcTemplate replica() {
+		return new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+	}
+}